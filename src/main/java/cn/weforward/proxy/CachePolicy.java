@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import cn.weforward.common.util.FreezedList;
+
+/**
+ * 缓存策略，决定资源响应的Cache-Control头
+ * <p>
+ * 按匹配方式选择资源：
+ * <ul>
+ * <li>version：以版本目录开头的路径（如/1.2.3/app.js）</li>
+ * <li>fingerprint：文件名带内容指纹（如app.3f9a2c1d.js）</li>
+ * <li>suffix：文件后缀</li>
+ * <li>name：文件名</li>
+ * <li>all：所有资源</li>
+ * </ul>
+ * 
+ * @author daibo
+ *
+ */
+public class CachePolicy {
+	/** 匹配版本目录 */
+	public static final String MATCH_VERSION = "version";
+	/** 匹配指纹文件名 */
+	public static final String MATCH_FINGERPRINT = "fingerprint";
+	/** 匹配后缀 */
+	public static final String MATCH_SUFFIX = "suffix";
+	/** 匹配文件名 */
+	public static final String MATCH_NAME = "name";
+	/** 匹配所有 */
+	public static final String MATCH_ALL = "all";
+	/** 默认的指纹文件名格式 */
+	public static final String DEFAULT_FINGERPRINT = ".*[.-][0-9a-fA-F]{8,}\\.[^.]+";
+
+	/** 匹配方式 */
+	protected final String m_Match;
+	/** 匹配值（后缀或文件名） */
+	protected List<String> m_Values = Collections.emptyList();
+	/** 指纹文件名格式 */
+	protected Pattern m_Pattern;
+	/** 最大缓存时间（秒），小于0表示不指定 */
+	protected int m_MaxAge = -1;
+	/** 过期后可先使用旧内容并在后台验证的时间（秒） */
+	protected int m_StaleWhileRevalidate;
+	/** 内容不会改变 */
+	protected boolean m_Immutable;
+	/** 每次使用前须验证 */
+	protected boolean m_NoCache;
+	/** 允许共享缓存 */
+	protected boolean m_Public;
+	/** Cache-Control头 */
+	protected String m_Header;
+
+	/**
+	 * 构造
+	 * 
+	 * @param match 匹配方式
+	 */
+	public CachePolicy(String match) {
+		m_Match = match;
+		if (MATCH_FINGERPRINT.equals(match)) {
+			m_Pattern = Pattern.compile(DEFAULT_FINGERPRINT);
+		} else if (!MATCH_VERSION.equals(match) && !MATCH_SUFFIX.equals(match) && !MATCH_NAME.equals(match)
+				&& !MATCH_ALL.equals(match)) {
+			throw new IllegalArgumentException("不支持的匹配方式" + match);
+		}
+	}
+
+	/**
+	 * 匹配值，后缀（如.html）或文件名（如index.html）
+	 * 
+	 * @param values 匹配值
+	 */
+	public void setValues(List<String> values) {
+		m_Values = FreezedList.freezed(values);
+	}
+
+	/**
+	 * 指纹文件名的正则表达式
+	 * 
+	 * @param regex 正则表达式
+	 */
+	public void setPattern(String regex) {
+		m_Pattern = Pattern.compile(regex);
+	}
+
+	/**
+	 * 最大缓存时间
+	 * 
+	 * @param second 秒
+	 */
+	public void setMaxAge(int second) {
+		m_MaxAge = second;
+		m_Header = null;
+	}
+
+	/**
+	 * 过期后可先使用旧内容并在后台验证的时间
+	 * 
+	 * @param second 秒
+	 */
+	public void setStaleWhileRevalidate(int second) {
+		m_StaleWhileRevalidate = second;
+		m_Header = null;
+	}
+
+	/**
+	 * 内容不会改变，浏览器在有效期内不再验证
+	 * 
+	 * @param immutable 是否不变
+	 */
+	public void setImmutable(boolean immutable) {
+		m_Immutable = immutable;
+		m_Header = null;
+	}
+
+	/**
+	 * 每次使用前须验证
+	 * 
+	 * @param noCache 是否须验证
+	 */
+	public void setNoCache(boolean noCache) {
+		m_NoCache = noCache;
+		m_Header = null;
+	}
+
+	/**
+	 * 允许共享缓存（CDN/代理）
+	 * 
+	 * @param isPublic 是否允许
+	 */
+	public void setPublic(boolean isPublic) {
+		m_Public = isPublic;
+		m_Header = null;
+	}
+
+	/**
+	 * 是否匹配
+	 * 
+	 * @param name         文件名
+	 * @param suffix       后缀
+	 * @param versionStart 是否以版本目录开头
+	 * @return 是否匹配
+	 */
+	public boolean match(String name, String suffix, boolean versionStart) {
+		switch (m_Match) {
+		case MATCH_VERSION:
+			return versionStart;
+		case MATCH_FINGERPRINT:
+			return m_Pattern.matcher(name).matches();
+		case MATCH_SUFFIX:
+			return null != suffix && m_Values.contains(suffix);
+		case MATCH_NAME:
+			return m_Values.contains(name);
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Cache-Control头
+	 * 
+	 * @return 头的值
+	 */
+	public String getHeader() {
+		String header = m_Header;
+		if (null == header) {
+			StringBuilder sb = new StringBuilder();
+			if (m_Public) {
+				sb.append("public, ");
+			}
+			if (m_NoCache) {
+				sb.append("no-cache, ");
+			}
+			if (m_MaxAge >= 0) {
+				sb.append("max-age=").append(m_MaxAge).append(", ");
+			}
+			if (m_StaleWhileRevalidate > 0) {
+				sb.append("stale-while-revalidate=").append(m_StaleWhileRevalidate).append(", ");
+			}
+			if (m_Immutable) {
+				sb.append("immutable, ");
+			}
+			if (sb.length() > 2) {
+				sb.setLength(sb.length() - 2);
+			}
+			header = sb.toString();
+			m_Header = header;
+		}
+		return header;
+	}
+
+	@Override
+	public String toString() {
+		return m_Match + m_Values + "=>" + getHeader();
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import cn.weforward.common.util.AntPathPattern;
+import cn.weforward.proxy.util.ClockMap;
+
+/**
+ * 主机解析（不可变）
+ * <p>
+ * 普通主机名按哈希精确匹配，“*.example.com”（ant）或“.*\.example\.com”（正则）形式的通配按反转标签的后缀树匹配（最长后缀优先），
+ * 其余无法识别的表达式才按配置顺序逐个匹配。通配及逐个匹配的结果记入有上限的最近结果表。
+ * <p>
+ * 注：正则表达式模式下不含其它元字符的主机名中的“.”按字面匹配
+ * 
+ * @author daibo
+ *
+ */
+class HostResolver {
+	/** 最近结果表的上限，超出时按CLOCK淘汰 */
+	private static final int MEMO_LIMIT = 4096;
+	/** 未匹配标记 */
+	private static final HostRoutes NONE = new HostRoutes(new HostRoute("", null));
+
+	/** 精确匹配 */
+	private final Map<String, HostRoutes> m_Exacts;
+	/** 后缀树根（标签反转） */
+	private final Label m_Suffixes;
+	/** 逐个匹配的表达式 */
+	private final HostRoutes[] m_Fallbacks;
+	/** 逐个匹配的预编译正则（ant模式为null） */
+	private final Pattern[] m_Patterns;
+	/** 是否有通配 */
+	private final boolean m_Wildcard;
+	/** 最近结果 */
+	private final ClockMap<String, HostRoutes> m_Memo;
+
+	/**
+	 * 构造
+	 * 
+	 * @param routes    主机路由（按配置顺序）
+	 * @param antEnable 是否启用ant匹配
+	 * @param regEnable 是否启用正则表达式匹配
+	 */
+	HostResolver(Collection<HostRoutes> routes, boolean antEnable, boolean regEnable) {
+		m_Exacts = new HashMap<>();
+		m_Suffixes = new Label();
+		List<HostRoutes> fallbacks = new ArrayList<>();
+		List<Pattern> patterns = new ArrayList<>();
+		boolean wildcard = false;
+		for (HostRoutes r : routes) {
+			String name = r.getName();
+			if (!antEnable && !regEnable) {
+				m_Exacts.put(name, r);
+				continue;
+			}
+			String literal = regEnable ? unescapeRegex(name) : unescapeAnt(name);
+			if (null != literal) {
+				m_Exacts.putIfAbsent(literal, r);
+				continue;
+			}
+			wildcard = true;
+			String suffix = null;
+			if (regEnable && name.startsWith(".*\\.")) {
+				suffix = unescapeRegex(name.substring(4));
+			} else if (antEnable && name.startsWith("*.")) {
+				suffix = unescapeAnt(name.substring(2));
+			}
+			if (null != suffix && !suffix.isEmpty()) {
+				m_Suffixes.insert(suffix, r);
+			} else {
+				fallbacks.add(r);
+				patterns.add(regEnable ? Pattern.compile(name) : null);
+			}
+		}
+		m_Fallbacks = fallbacks.toArray(new HostRoutes[fallbacks.size()]);
+		m_Patterns = patterns.toArray(new Pattern[patterns.size()]);
+		m_Wildcard = wildcard;
+		m_Memo = new ClockMap<>(MEMO_LIMIT);
+	}
+
+	/**
+	 * 解析主机
+	 * 
+	 * @param host 主机
+	 * @return 主机路由，没有匹配时返回null
+	 */
+	HostRoutes resolve(String host) {
+		if (null == host) {
+			host = "";
+		}
+		HostRoutes r = m_Exacts.get(host);
+		if (null != r || !m_Wildcard) {
+			return r;
+		}
+		r = m_Memo.get(host);
+		if (null == r) {
+			r = m_Suffixes.find(host);
+			if (null == r) {
+				for (int i = 0; i < m_Fallbacks.length; i++) {
+					Pattern p = m_Patterns[i];
+					if (null == p ? AntPathPattern.match(m_Fallbacks[i].getName(), host) : p.matcher(host).matches()) {
+						r = m_Fallbacks[i];
+						break;
+					}
+				}
+			}
+			if (null == r) {
+				r = NONE;
+			}
+			m_Memo.put(host, r);
+		}
+		return r == NONE ? null : r;
+	}
+
+	/* 不含通配符的ant表达式返回其字面值，否则返回null */
+	private static String unescapeAnt(String name) {
+		if (name.indexOf('*') >= 0 || name.indexOf('?') >= 0) {
+			return null;
+		}
+		return name;
+	}
+
+	/* 只含字面字符（及“.”/“\.”）的正则表达式返回其字面值，否则返回null */
+	private static String unescapeRegex(String name) {
+		StringBuilder sb = null;
+		for (int i = 0; i < name.length(); i++) {
+			char ch = name.charAt(i);
+			if (ch == '\\') {
+				if (i + 1 < name.length() && name.charAt(i + 1) == '.') {
+					if (null == sb) {
+						sb = new StringBuilder(name.length());
+						sb.append(name, 0, i);
+					}
+					sb.append('.');
+					i++;
+					continue;
+				}
+				return null;
+			}
+			if (!Character.isLetterOrDigit(ch) && ch != '.' && ch != '-' && ch != '_' && ch != ':') {
+				return null;
+			}
+			if (null != sb) {
+				sb.append(ch);
+			}
+		}
+		return null == sb ? name : sb.toString();
+	}
+
+	/**
+	 * 后缀树节点，每层对应主机名的一个标签（从右往左）
+	 * 
+	 * @author daibo
+	 *
+	 */
+	static class Label {
+		/** 子标签 */
+		Map<String, Label> m_Children;
+		/** 以本标签为后缀的通配路由 */
+		HostRoutes m_Routes;
+
+		/* 插入后缀，如tenant.example.com */
+		void insert(String suffix, HostRoutes routes) {
+			Label node = this;
+			int end = suffix.length();
+			while (end > 0) {
+				int dot = suffix.lastIndexOf('.', end - 1);
+				String label = suffix.substring(dot + 1, end);
+				if (null == node.m_Children) {
+					node.m_Children = new HashMap<>();
+				}
+				Label child = node.m_Children.get(label);
+				if (null == child) {
+					child = new Label();
+					node.m_Children.put(label, child);
+				}
+				node = child;
+				end = dot;
+			}
+			if (null == node.m_Routes) {
+				node.m_Routes = routes;
+			}
+		}
+
+		/* 查找最长的匹配后缀（主机须在后缀前还有内容） */
+		HostRoutes find(String host) {
+			HostRoutes found = null;
+			Label node = this;
+			int end = host.length();
+			while (end > 0 && null != node.m_Children) {
+				int dot = host.lastIndexOf('.', end - 1);
+				Label child = node.m_Children.get(host.substring(dot + 1, end));
+				if (null == child) {
+					break;
+				}
+				node = child;
+				if (dot < 0) {
+					break;
+				}
+				if (null != node.m_Routes) {
+					found = node.m_Routes;
+				}
+				end = dot;
+			}
+			return found;
+		}
+	}
+}
@@ -13,15 +13,22 @@ package cn.weforward.proxy;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
 import cn.weforward.common.util.AntPathPattern;
+import cn.weforward.common.util.FreezedList;
 import cn.weforward.common.util.NumberUtil;
 import cn.weforward.common.util.StringUtil;
 import cn.weforward.common.util.UrlUtil;
 import cn.weforward.proxy.exception.HttpException;
+import cn.weforward.proxy.util.ClockMap;
+import cn.weforward.proxy.util.DeployEpoch;
+import cn.weforward.proxy.util.FileResource;
 import cn.weforward.proxy.util.FileResources;
+import cn.weforward.proxy.util.ZipArchives;
+import cn.weforward.proxy.util.ZipResource;
 
 /**
  * 主机路由
@@ -36,18 +43,39 @@ public class HostRoute {
 	protected String m_Root;
 	/** 路径 */
 	protected String m_Path;
+	/** 预编译的路径正则表达式 */
+	private Pattern m_PathPattern;
 	/** 启用ant匹配 */
 	private boolean m_AntEnable;
 	/** 启用正则表达式匹配 */
 	private boolean m_RegEnable;
 	/** 指定版本 */
 	protected String m_Version = "latest";
+	/** 主页 */
+	private static final String INDEX = "index.html";
+	/** 已解析资源的上限，超出时按CLOCK淘汰 */
+	private static final int RESOLVED_LIMIT = 8192;
+	/** 拼接路径用的缓冲区 */
+	private static final ThreadLocal<StringBuilder> PATH_BUILDER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
 	/** 主页后缀 */
 	private static List<String> INDEX_SUFFIXS = Arrays.asList(".jsp", ".jspx");
 	/** 自动根据路径映射 */
 	protected boolean m_AutoMappper;
-	/** 变量 */
-	protected List<Val> m_Vals;
+	/** 根目录模板（字面值与${n}变量交替，变量为Integer） */
+	protected Object[] m_RootTemplate;
+	/** 已解析的资源（以请求的uri为键） */
+	protected final ClockMap<String, Resolved> m_Resolved = new ClockMap<>(RESOLVED_LIMIT);
+	/** 已解析资源所属的部署纪元 */
+	protected volatile long m_Epoch = -1;
+	/** 归档文件名，指定时直接从版本目录下的该zip归档中读取资源 */
+	protected String m_Archive;
+	/** 缓存策略（按顺序首个匹配的生效） */
+	protected List<CachePolicy> m_CachePolicies = Collections.emptyList();
 
 	/**
 	 * 构造
@@ -58,28 +86,38 @@ public class HostRoute {
 	public HostRoute(String host, String root) {
 		m_Host = host;
 		m_Root = root;
-		m_Vals = new ArrayList<>();
-		if (null != root) {
-			for (int i = 0; i < root.length(); i++) {
-				char ch = root.charAt(i);
-				if (ch == '$' && i + 1 < root.length() && root.charAt(i + 1) == '{') {
-					StringBuilder sb = new StringBuilder();
-					for (int j = i + 2; j < root.length(); j++) {
-						char childch = root.charAt(j);
-						if (childch == '}') {
-							break;
-						}
-						sb.append(childch);
-					}
-					try {
-						int num = Integer.parseInt(sb.toString());
-						m_Vals.add(new Val(num));
-					} catch (NumberFormatException e) {
-
-					}
+		m_RootTemplate = compileTemplate(root);
+	}
+
+	/* 编译根目录模板，将${n}变量拆分出来 */
+	private static Object[] compileTemplate(String root) {
+		if (null == root || root.indexOf("${") < 0) {
+			return null;
+		}
+		List<Object> segments = new ArrayList<>();
+		int start = 0;
+		int i = root.indexOf("${");
+		while (i >= 0) {
+			int end = root.indexOf('}', i + 2);
+			if (end < 0) {
+				break;
+			}
+			try {
+				int num = Integer.parseInt(root.substring(i + 2, end));
+				if (i > start) {
+					segments.add(root.substring(start, i));
 				}
+				segments.add(num);
+				start = end + 1;
+			} catch (NumberFormatException e) {
+				// 非数字变量原样保留
 			}
+			i = root.indexOf("${", end + 1);
 		}
+		if (start < root.length()) {
+			segments.add(root.substring(start));
+		}
+		return segments.toArray();
 	}
 
 	/**
@@ -91,6 +129,24 @@ public class HostRoute {
 		return m_Host;
 	}
 
+	/**
+	 * 根目录
+	 * 
+	 * @return 根目录，可能含${n}变量
+	 */
+	public String getRoot() {
+		return m_Root;
+	}
+
+	/**
+	 * 从版本目录下的zip归档中读取资源（不解压）
+	 * 
+	 * @param archive 归档文件名，如file.zip，为空表示读取解压后的文件
+	 */
+	public void setArchive(String archive) {
+		m_Archive = StringUtil.isEmpty(archive) ? null : archive;
+	}
+
 	/**
 	 * 指定版本
 	 * 
@@ -107,6 +163,25 @@ public class HostRoute {
 	 */
 	public void setPath(String path) {
 		m_Path = path;
+		m_PathPattern = null;
+	}
+
+	/**
+	 * 匹配的路径
+	 * 
+	 * @return 路径
+	 */
+	public String getPath() {
+		return m_Path;
+	}
+
+	/**
+	 * 是否为前缀匹配（未启用ant及正则表达式匹配）
+	 * 
+	 * @return 是否前缀匹配
+	 */
+	public boolean isPrefixMatch() {
+		return !m_AntEnable && !m_RegEnable;
 	}
 
 	/**
@@ -117,6 +192,7 @@ public class HostRoute {
 	 */
 	public void setRegEnable(boolean enable) {
 		m_RegEnable = enable;
+		m_PathPattern = null;
 	}
 
 	/**
@@ -137,73 +213,236 @@ public class HostRoute {
 		m_AutoMappper = enable;
 	}
 
+	/**
+	 * 设置缓存策略，按顺序首个匹配的策略生效
+	 * 
+	 * @param policies 缓存策略
+	 */
+	public void setCachePolicies(List<CachePolicy> policies) {
+		m_CachePolicies = FreezedList.freezed(policies);
+	}
+
 	/**
 	 * 查找文件
 	 * 
 	 * @param uri 资源地址
-	 * @return 资源
+	 * @return 解析结果，未找到时返回null
 	 * @throws IOException IO异常
 	 */
-	public Resource findFile(String uri) throws IOException {
+	public Resolved findFile(String uri) throws IOException {
 		if (StringUtil.isEmpty(uri)) {
 			return null;
 		}
-		String root;
+		long epoch = DeployEpoch.get();
+		if (epoch != m_Epoch) {
+			// 切换了部署，之前解析的版本目录已失效
+			m_Resolved.clear();
+			m_Epoch = epoch;
+		}
+		Resolved r = m_Resolved.get(uri);
+		if (null != r && !isDetached(r.getResource())) {
+			return r;
+		}
+		r = resolve(uri);
+		if (null != r && epoch == DeployEpoch.get()) {
+			m_Resolved.put(uri, r);
+		}
+		return r;
+	}
+
+	/**
+	 * 只从已解析过的资源中查找，不访问磁盘
+	 * 
+	 * @param uri 资源地址
+	 * @return 解析结果，未解析过时返回null
+	 */
+	public Resolved findResolvedFile(String uri) {
+		if (StringUtil.isEmpty(uri) || DeployEpoch.get() != m_Epoch) {
+			return null;
+		}
+		Resolved r = m_Resolved.get(uri);
+		return null == r || isDetached(r.getResource()) ? null : r;
+	}
+
+	/* 资源是否已失效（已从资源组淘汰或归档已被替换） */
+	private static boolean isDetached(Resource r) {
+		if (r instanceof FileResource) {
+			return ((FileResource) r).isDetached();
+		}
+		if (r instanceof ZipResource) {
+			return ((ZipResource) r).isDetached();
+		}
+		return false;
+	}
+
+	/* 解析资源，路径在线程内复用的缓冲区中拼接 */
+	private Resolved resolve(String uri) throws IOException {
+		StringBuilder sb = PATH_BUILDER.get();
+		sb.setLength(0);
+		int offset;
 		if (m_AutoMappper) {
-			int index = uri.indexOf("/", 1);
+			int index = uri.indexOf('/', 1);
 			if (index == -1) {
 				return null;
 			}
-			String path = uri.substring(0, index + 1);
-			uri = uri.substring(index + 1);
-			root = m_Root + path;
+			offset = index + 1;
+			sb.append(m_Root).append(uri, 0, offset);
 		} else {
+			offset = 0;
 			if (!StringUtil.isEmpty(m_Path) && !m_AntEnable && !m_RegEnable) {
-				int offset = m_Path.length();
-				uri = uri.substring(offset);
-			}
-			root = m_Root;
-			if (!m_Vals.isEmpty()) {
-				String[] arr = uri.split("/");
-				for (Val v : m_Vals) {
-					if (v.m_Index < arr.length) {
-						root = root.replace(v.m_Name, arr[v.m_Index]);
-					}
-
-				}
+				offset = m_Path.length();
 			}
-
+			appendRoot(sb, uri, offset);
 		}
-		if (!FileResources.get(root).exists()) {
+		if (!FileResources.get(sb.toString()).exists()) {
 			throw new HttpException(410, "未找到根目录");
 		}
-		if (isResource(uri)) {
-			uri = UrlUtil.decodeUrl(uri);
-			if (uri.charAt(0) == '/') {
-				uri = uri.substring(1);
+		boolean versionStart = false;
+		boolean immutable = false;
+		// 版本目录之后的位置，即资源在归档中的名称开始处
+		int base;
+		if (isResource(uri, offset)) {
+			String path = uri;
+			int start = offset;
+			if (needDecode(uri, offset)) {
+				path = UrlUtil.decodeUrl(uri.substring(offset));
+				start = 0;
 			}
-			if (isVersionStart(uri)) {
-				return FileResources.get(root + uri);
+			if (start < path.length() && path.charAt(start) == '/') {
+				start++;
+			}
+			if (isVersionStart(path, start)) {
+				versionStart = true;
+				base = sb.length() + path.indexOf('/', start) + 1 - start;
 			} else {
-				return FileResources.get(root + m_Version + "/" + uri);
+				immutable = appendVersion(sb);
+				base = sb.length();
+			}
+			sb.append(path, start, path.length());
+		} else {
+			immutable = appendVersion(sb);
+			base = sb.length();
+			sb.append(INDEX);
+		}
+		Resource file;
+		if (null != m_Archive) {
+			file = resolveArchive(sb, base, immutable);
+			if (null == file) {
+				return null;
 			}
 		} else {
-			uri = "index.html";
-			if (StringUtil.isEmpty(m_Version)) {
-				return FileResources.get(root + "/" + uri);
+			file = FileResources.get(sb.toString(), immutable);
+		}
+		if (sb.capacity() > 4096) {
+			// 不长期占用过大的缓冲区
+			sb.setLength(0);
+			sb.trimToSize();
+		}
+		// latest与指定版本的地址解析到同一个资源，Cache-Control要按请求的地址选定，不能记在资源上
+		return new Resolved(file, getCacheControl(file.getName(), versionStart));
+	}
+
+	/* 从版本目录下的归档中解析资源 */
+	private ZipResource resolveArchive(StringBuilder sb, int base, boolean immutable) throws IOException {
+		String entry = sb.substring(base);
+		sb.setLength(base);
+		sb.append(m_Archive);
+		return ZipArchives.get(sb.toString(), entry, immutable);
+	}
+
+	/* 拼接版本目录，软链接（如latest）按当前部署纪元解析为实际目录，返回其下的文件是否不会再变 */
+	private boolean appendVersion(StringBuilder sb) {
+		if (StringUtil.isEmpty(m_Version)) {
+			sb.append('/');
+			return false;
+		}
+		sb.append(m_Version);
+		String target = DeployEpoch.resolve(sb.toString());
+		sb.setLength(0);
+		sb.append(target).append('/');
+		return true;
+	}
+
+	/* 按模板拼接根目录，${n}取uri[offset:]按“/”分隔后的第n段（与String.split一致） */
+	private void appendRoot(StringBuilder sb, String uri, int offset) {
+		if (null == m_RootTemplate) {
+			sb.append(m_Root);
+			return;
+		}
+		for (Object segment : m_RootTemplate) {
+			if (segment instanceof Integer) {
+				int n = (Integer) segment;
+				if (!appendSegment(sb, uri, offset, n)) {
+					sb.append("${").append(n).append('}');
+				}
 			} else {
-				return FileResources.get(root + m_Version + "/" + uri);
+				sb.append((String) segment);
 			}
 		}
+	}
 
+	/* 追加uri[offset:]的第n段，超出范围返回false */
+	private static boolean appendSegment(StringBuilder sb, String uri, int offset, int n) {
+		int length = uri.length();
+		if (offset >= length) {
+			// "".split("/")只有一个空段
+			return n == 0;
+		}
+		// 末尾的空段会被split丢弃
+		int last = length;
+		while (last > offset && uri.charAt(last - 1) == '/') {
+			last--;
+		}
+		if (last == offset) {
+			return false;
+		}
+		int start = offset;
+		for (int i = 0; i < n; i++) {
+			int slash = uri.indexOf('/', start);
+			if (slash < 0 || slash >= last) {
+				return false;
+			}
+			start = slash + 1;
+		}
+		int end = uri.indexOf('/', start);
+		if (end < 0 || end > last) {
+			end = last;
+		}
+		sb.append(uri, start, end);
+		return true;
 	}
 
-	private boolean isVersionStart(String uri) {
-		int index = uri.indexOf("/");
+	/* 是否需要URL解码 */
+	private static boolean needDecode(String uri, int offset) {
+		for (int i = offset; i < uri.length(); i++) {
+			char ch = uri.charAt(i);
+			if (ch == '%' || ch == '+') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* 按缓存策略选定Cache-Control头 */
+	private String getCacheControl(String name, boolean versionStart) {
+		if (m_CachePolicies.isEmpty()) {
+			return "";
+		}
+		String suffix = HtmlServer.getSuffix(name);
+		for (CachePolicy p : m_CachePolicies) {
+			if (p.match(name, suffix, versionStart)) {
+				return p.getHeader();
+			}
+		}
+		return "";
+	}
+
+	private boolean isVersionStart(String uri, int start) {
+		int index = uri.indexOf('/', start);
 		if (index < 0) {
 			return false;
 		}
-		for (int i = 0; i < index; i++) {
+		for (int i = start; i < index; i++) {
 			char ch = uri.charAt(i);
 			if (!NumberUtil.isNumber(ch) && ch != '.') {
 				return false;
@@ -212,6 +451,17 @@ public class HostRoute {
 		return true;
 	}
 
+	/**
+	 * 预编译路径的正则表达式，在编译路由（{@link HostRoutes#compile()}）时调用，配置错误在加载路由时即暴露
+	 * 
+	 * @throws java.util.regex.PatternSyntaxException 正则表达式错误
+	 */
+	public void compile() {
+		if (m_RegEnable && !StringUtil.isEmpty(m_Path)) {
+			m_PathPattern = Pattern.compile(m_Path);
+		}
+	}
+
 	/**
 	 * 是否匹配路径
 	 * 
@@ -223,7 +473,12 @@ public class HostRoute {
 			return true;
 		}
 		if (m_RegEnable) {
-			return Pattern.matches(m_Path, uri);
+			Pattern pattern = m_PathPattern;
+			if (null == pattern) {
+				compile();
+				pattern = m_PathPattern;
+			}
+			return pattern.matcher(uri).matches();
 		} else if (m_AntEnable) {
 			return AntPathPattern.match(m_Path, uri);
 		} else {
@@ -237,28 +492,57 @@ public class HostRoute {
 	 * @param uri 资源地址
 	 * @return 是否匹配
 	 */
-	private boolean isResource(String uri) {
-		String suffix = HtmlServer.getSuffix(uri);
-		if (suffix == null) {
+	private boolean isResource(String uri, int offset) {
+		int index = uri.lastIndexOf('.');
+		if (index < offset || uri.lastIndexOf('\\') > index) {
 			return false;
 		}
-		return !INDEX_SUFFIXS.contains(suffix);
+		for (String suffix : INDEX_SUFFIXS) {
+			if (uri.length() - index == suffix.length() && uri.startsWith(suffix, index)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
-	static class Val {
-		String m_Name;
+	@Override
+	public String toString() {
+		return m_Host + (StringUtil.isEmpty(m_Path) ? "/*" : m_Path);
+	}
 
-		int m_Index;
+	/**
+	 * 路由解析的结果
+	 * 
+	 * @author daibo
+	 *
+	 */
+	public static class Resolved {
+		/** 资源 */
+		protected final Resource m_Resource;
+		/** 按路由及请求的地址选定的Cache-Control头，空表示不指定 */
+		protected final String m_CacheControl;
 
-		public Val(int num) {
-			m_Name = "${" + num + "}";
-			m_Index = num;
+		Resolved(Resource resource, String cacheControl) {
+			m_Resource = resource;
+			m_CacheControl = cacheControl;
 		}
 
-	}
+		/**
+		 * 资源
+		 * 
+		 * @return 资源
+		 */
+		public Resource getResource() {
+			return m_Resource;
+		}
 
-	@Override
-	public String toString() {
-		return m_Host + (StringUtil.isEmpty(m_Path) ? "/*" : m_Path);
+		/**
+		 * Cache-Control头
+		 * 
+		 * @return 头的值，空表示不指定
+		 */
+		public String getCacheControl() {
+			return m_CacheControl;
+		}
 	}
 }
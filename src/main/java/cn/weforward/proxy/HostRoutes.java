@@ -26,6 +26,8 @@ public class HostRoutes {
 	protected String m_Name;
 	/** 路由 */
 	protected LinkedList<HostRoute> m_Routes;
+	/** 预编译的匹配器 */
+	protected volatile RouteMatcher m_Matcher;
 
 	/**
 	 * 构造
@@ -52,22 +54,46 @@ public class HostRoutes {
 			throw new UnsupportedOperationException(getName() + "≠" + r.getName());
 		}
 		m_Routes.add(r);
+		m_Matcher = null;
+	}
+
+	/**
+	 * 将当前路由编译为匹配器，之后的查找不再逐个匹配
+	 */
+	public void compile() {
+		m_Matcher = new RouteMatcher(m_Routes);
 	}
 
 	/***
 	 * 读取文件
 	 * 
 	 * @param uri 资源地址
-	 * @return 资源
+	 * @return 解析结果，未找到时返回null
 	 * @throws IOException IO异常
 	 */
-	public Resource findFile(String uri) throws IOException {
-		for (HostRoute r : m_Routes) {
-			if (r.matchPath(uri)) {
-				return r.findFile(uri);
-			}
+	public HostRoute.Resolved findFile(String uri) throws IOException {
+		RouteMatcher matcher = m_Matcher;
+		if (null == matcher) {
+			compile();
+			matcher = m_Matcher;
+		}
+		HostRoute r = matcher.match(uri);
+		return null == r ? null : r.findFile(uri);
+	}
+
+	/**
+	 * 只从已解析过的资源中查找，不访问磁盘
+	 * 
+	 * @param uri 资源地址
+	 * @return 解析结果，未解析过时返回null
+	 */
+	public HostRoute.Resolved findResolvedFile(String uri) {
+		RouteMatcher matcher = m_Matcher;
+		if (null == matcher) {
+			return null;
 		}
-		return null;
+		HostRoute r = matcher.match(uri);
+		return null == r ? null : r.findResolvedFile(uri);
 	}
 
 	@Override
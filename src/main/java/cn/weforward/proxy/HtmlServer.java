@@ -10,20 +10,24 @@
  */
 package cn.weforward.proxy;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,14 +37,23 @@ import cn.weforward.common.restful.RestfulRequest;
 import cn.weforward.common.restful.RestfulResponse;
 import cn.weforward.common.restful.RestfulService;
 import cn.weforward.common.sys.VmStat;
-import cn.weforward.common.util.AntPathPattern;
 import cn.weforward.common.util.FreezedList;
 import cn.weforward.common.util.StringUtil;
 import cn.weforward.protocol.aio.http.RestfulServer;
 import cn.weforward.protocol.aio.netty.NettyHttpServer;
 import cn.weforward.proxy.exception.HttpException;
 import cn.weforward.proxy.util.ByteArrayInputStreamExt;
+import cn.weforward.proxy.util.ByteBufferInputStream;
+import cn.weforward.proxy.util.CachedResource;
+import cn.weforward.proxy.util.ChannelInputStream;
+import cn.weforward.proxy.util.FileResource;
+import cn.weforward.proxy.util.FileResources;
+import cn.weforward.proxy.util.HttpConditional;
+import cn.weforward.proxy.util.HttpRange;
+import cn.weforward.proxy.util.ResourceCache;
+import cn.weforward.proxy.util.StringResource;
 import cn.weforward.proxy.util.VersionUtil;
+import cn.weforward.proxy.util.ZipResource;
 
 /**
  * HTML服务器
@@ -51,6 +64,12 @@ import cn.weforward.proxy.util.VersionUtil;
 public class HtmlServer extends NettyHttpServer implements RestfulService {
 	/** 日志 */
 	private static final Logger _Logger = LoggerFactory.getLogger(HtmlServer.class);
+	/** 206状态码 */
+	private static final int STATUS_PARTIAL_CONTENT = 206;
+	/** 416状态码 */
+	private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
+	/** 多范围响应的分隔符 */
+	private static final String RANGE_BOUNDARY = "wf_range_" + Long.toHexString(System.currentTimeMillis());
 	/** 默认主机路由Host值 */
 	private static final String DEFAULT_HOST = "*";
 	/** 启用ant匹配 */
@@ -65,10 +84,20 @@ public class HtmlServer extends NettyHttpServer implements RestfulService {
 	protected HostRoutes m_DefaultRoute;
 	/** 路由映射表 */
 	protected ConcurrentMap<String, HostRoutes> m_Routes;
+	/** 主机解析 */
+	protected HostResolver m_HostResolver;
 	/** 不使用缓存的文件后缀 */
 	private List<String> m_NoCacheFiles = Collections.emptyList();
 	/** 特殊配置 */
 	private Map<String, Resource> m_Configs = new HashMap<String, Resource>();
+	/** 启用预压缩文件（.gz/.br） */
+	private boolean m_Precompressed;
+	/** 热点资源缓存 */
+	protected ResourceCache m_Cache;
+	/** 是否在IO线程中直接应答能从内存应答的请求 */
+	protected boolean m_FastPath;
+	/** 快速路径应答的请求数 */
+	protected final LongAdder m_FastPathHits = new LongAdder();
 
 	/**
 	 * 构造
@@ -126,6 +155,66 @@ public class HtmlServer extends NettyHttpServer implements RestfulService {
 		m_NoCacheFiles = FreezedList.freezed(list);
 	}
 
+	/**
+	 * 启用预压缩文件，按Accept-Encoding优先返回同目录下的.br或.gz文件
+	 * 
+	 * @param enable 是否启用
+	 */
+	public void setPrecompressed(boolean enable) {
+		m_Precompressed = enable;
+	}
+
+	/**
+	 * 是否在IO线程中直接应答能从内存应答的请求（304、已缓存的小文件），默认不启用（对应配置项fastPath）
+	 * <p>
+	 * 启用后这些请求不再切换到工作线程；注：应答的冲刷没有合并，平台未提供相应的扩展点
+	 * 
+	 * @param enable 是否启用
+	 */
+	public void setFastPath(boolean enable) {
+		m_FastPath = enable;
+	}
+
+	/**
+	 * 快速路径应答的请求数
+	 * 
+	 * @return 请求数
+	 */
+	public long getFastPathHits() {
+		return m_FastPathHits.sum();
+	}
+
+	/**
+	 * 设置热点资源缓存
+	 * 
+	 * @param capacity    缓存容量（字节），小于等于0表示不缓存
+	 * @param maxFileSize 可缓存的最大文件（字节）
+	 */
+	public void setCache(long capacity, int maxFileSize) {
+		if (capacity <= 0 || maxFileSize <= 0) {
+			m_Cache = null;
+		} else {
+			m_Cache = new ResourceCache(capacity, maxFileSize);
+		}
+	}
+
+	/**
+	 * 预热文件，填充元数据及热点资源缓存
+	 * 
+	 * @param file 文件
+	 */
+	public void warm(File file) {
+		try {
+			Resource resource = FileResources.get(file.getPath(), true);
+			ResourceCache cache = m_Cache;
+			if (null != cache) {
+				cache.get(resource);
+			}
+		} catch (IOException e) {
+			_Logger.warn("预热" + file + "失败", e);
+		}
+	}
+
 	/**
 	 * 添加配置资源
 	 * 
@@ -146,6 +235,7 @@ public class HtmlServer extends NettyHttpServer implements RestfulService {
 	 */
 	public void setRoutes(List<HostRoute> routes) throws Exception {
 		m_Routes = new ConcurrentHashMap<>();
+		Map<String, HostRoutes> ordered = new LinkedHashMap<>();
 		for (HostRoute r : routes) {
 			if (StringUtil.eq(r.getName(), DEFAULT_HOST)) {
 				if (null == m_DefaultRoute) {
@@ -161,8 +251,16 @@ public class HtmlServer extends NettyHttpServer implements RestfulService {
 					rs.add(r);
 				}
 				m_Routes.put(r.getName(), rs);
+				ordered.put(r.getName(), rs);
 			}
 		}
+		if (null != m_DefaultRoute) {
+			m_DefaultRoute.compile();
+		}
+		for (HostRoutes rs : m_Routes.values()) {
+			rs.compile();
+		}
+		m_HostResolver = new HostResolver(ordered.values(), m_AntEnable, m_RegEnable);
 		start();
 	}
 
@@ -172,6 +270,14 @@ public class HtmlServer extends NettyHttpServer implements RestfulService {
 			// 只支持GET方法
 			response.setStatus(RestfulResponse.STATUS_METHOD_NOT_ALLOWED);
 			response.openOutput().close();
+			return;
+		}
+		if (m_FastPath) {
+			// 能完全从内存应答的请求（304、已缓存的小文件）直接在IO线程中应答，不再切换到工作线程
+			HostRoute.Resolved r = readResolvedFile(getHost(request), request.getUri());
+			if (null != r && respond(request, response, r.getResource(), r.getCacheControl(), true)) {
+				m_FastPathHits.increment();
+			}
 		}
 	}
 
@@ -181,22 +287,23 @@ public class HtmlServer extends NettyHttpServer implements RestfulService {
 		String uri = request.getUri();
 		response.setHeader("wf-srv", m_Serverid);
 		response.setHeader("wf-version", getVersion());
-		Resource file = null;
-		if (null == file) {
-			try {
-				file = readFile(host, uri);
-			} catch (HttpException e) {
-				response.setStatus(e.getCode());
-				response.openOutput().close();
-				return;
-			}
+		HostRoute.Resolved r;
+		try {
+			r = readFile(host, uri);
+		} catch (HttpException e) {
+			response.setStatus(e.getCode());
+			response.openOutput().close();
+			return;
 		}
+		Resource file = null == r ? null : r.getResource();
+		String cacheControl = null == r ? null : r.getCacheControl();
 		if (null == file || !file.exists()) {
 			// 配置
 			int index = uri.lastIndexOf('/');
 			if (index > 0) {
 				file = m_Configs.get(uri.substring(index + 1));
 			}
+			cacheControl = null;
 		}
 		if (_Logger.isTraceEnabled()) {
 			_Logger.trace(host + uri + "=>" + file);
@@ -206,40 +313,228 @@ public class HtmlServer extends NettyHttpServer implements RestfulService {
 			response.openOutput().close();
 			return;
 		}
+		respond(request, response, file, cacheControl, false);
+	}
+
+	/* 资源在内存中（读取元数据及查找预压缩文件不会访问磁盘） */
+	private static boolean isResident(Resource file) {
+		if (file instanceof FileResource) {
+			return ((FileResource) file).isMetadataCached();
+		}
+		return file instanceof ZipResource || file instanceof StringResource || file instanceof CachedResource;
+	}
+
+	/**
+	 * 应答资源
+	 * 
+	 * @param request      请求
+	 * @param response     响应
+	 * @param file         资源
+	 * @param cacheControl 路由选定的Cache-Control头，可为空
+	 * @param memoryOnly   是否只在不需要访问磁盘时应答
+	 * @return 是否已应答
+	 * @throws IOException IO异常
+	 */
+	private boolean respond(RestfulRequest request, RestfulResponse response, Resource file, String cacheControl,
+			boolean memoryOnly) throws IOException {
+		if (memoryOnly && (!isResident(file) || !file.exists())) {
+			return false;
+		}
 		String suffix = getSuffix(file.getName());
+		String encoding = null;
+		boolean vary = false;
+		if (m_Precompressed || file instanceof ZipResource) {
+			if (memoryOnly && file instanceof FileResource && !((FileResource) file).isEncodedCached()) {
+				return false;
+			}
+			// 归档中已压缩的条目总是尝试原样输出
+			Resource br = file.getEncoded(Resource.ENCODING_BR);
+			Resource gzip = file.getEncoded(Resource.ENCODING_GZIP);
+			if (null != br || null != gzip) {
+				vary = true;
+				String accept = getHeader(request, "Accept-Encoding");
+				if (null != br && isAcceptEncoding(accept, Resource.ENCODING_BR)) {
+					encoding = Resource.ENCODING_BR;
+					file = br;
+				} else if (null != gzip && isAcceptEncoding(accept, Resource.ENCODING_GZIP)) {
+					encoding = Resource.ENCODING_GZIP;
+					file = gzip;
+				}
+			}
+		}
+		boolean conditional = !m_NoCacheFiles.contains(suffix);
+		boolean notModified = conditional && HttpConditional.isNotModified(getHeader(request, "If-None-Match"),
+				getHeader(request, "If-Modified-Since"), file);
+		Resource body = file;
+		if (!notModified) {
+			ResourceCache cache = m_Cache;
+			if (memoryOnly) {
+				// 范围请求较少，交给工作线程
+				body = null == cache ? null : cache.peek(file);
+				if (null == body || !StringUtil.isEmpty(getHeader(request, "Range"))) {
+					return false;
+				}
+			} else if (null != cache) {
+				body = cache.get(file);
+			}
+		}
+		if (memoryOnly) {
+			response.setHeader("wf-srv", m_Serverid);
+			response.setHeader("wf-version", getVersion());
+		}
+		if (!StringUtil.isEmpty(cacheControl)) {
+			response.setHeader("Cache-Control", cacheControl);
+		}
+		if (vary) {
+			response.setHeader("Vary", "Accept-Encoding");
+		}
+		if (null != encoding) {
+			response.setHeader("Content-Encoding", encoding);
+		}
+		if (conditional) {
+			String etag = file.getETag();
+			if (null != etag) {
+				response.setHeader("ETag", etag);
+			}
+			if (notModified) {
+				response.setStatus(RestfulResponse.STATUS_NOT_MODIFIED);
+				response.openOutput().close();
+				return true;
+			}
+			response.setHeader("Last-Modified", file.getLastModified());
+		}
+		file = body;
 		String type = ContentType.get(suffix);
-		if (!m_NoCacheFiles.contains(suffix)) {
-			String modified = getHeader(request, "if-modified-since");
-			if (!StringUtil.isEmpty(modified)) {
-				if (StringUtil.eq(modified, file.getLastModified())) {
-					response.setStatus(RestfulResponse.STATUS_NOT_MODIFIED);
+		long length = file.getLength();
+		List<HttpRange> ranges = null;
+		if (length >= 0) {
+			response.setHeader("Accept-Ranges", "bytes");
+			String range = getHeader(request, "Range");
+			if (!StringUtil.isEmpty(range) && HttpConditional.isRangeMatch(getHeader(request, "If-Range"), file)) {
+				ranges = HttpRange.parse(range, length);
+				if (null != ranges && ranges.isEmpty()) {
+					response.setHeader("Content-Range", "bytes */" + length);
+					response.setStatus(STATUS_RANGE_NOT_SATISFIABLE);
 					response.openOutput().close();
-					return;
+					return true;
 				}
 			}
-			response.setHeader("Last-Modified", file.getLastModified());
 		}
-		if (!StringUtil.isEmpty(type)) {
-			response.setHeader("Content-Type", type);
-		}
-		response.setStatus(RestfulResponse.STATUS_OK);
-		try (OutputStream out = response.openOutput(); InputStream in = file.getStream()) {
-			if (in instanceof FileInputStream && out instanceof WritableByteChannel) {
-				// NIO transfer
-				FileChannel channel = ((FileInputStream) in).getChannel();
-				channel.transferTo(0, channel.size(), (WritableByteChannel) out);
-			} else if (in instanceof ByteArrayInputStreamExt) {
-				// bytes
-				@SuppressWarnings("resource")
-				ByteArrayInputStreamExt bytes = (ByteArrayInputStreamExt) in;
-				out.write(bytes.getBytes(), bytes.getPos(), bytes.available());
+		if (null == ranges) {
+			if (!StringUtil.isEmpty(type)) {
+				response.setHeader("Content-Type", type);
+			}
+			response.setStatus(RestfulResponse.STATUS_OK);
+			try (OutputStream out = response.openOutput(); InputStream in = file.getStream()) {
+				transfer(in, out, 0, -1);
+			}
+		} else if (ranges.size() == 1) {
+			HttpRange r = ranges.get(0);
+			if (!StringUtil.isEmpty(type)) {
+				response.setHeader("Content-Type", type);
+			}
+			response.setHeader("Content-Range", r.toContentRange(length));
+			response.setStatus(STATUS_PARTIAL_CONTENT);
+			try (OutputStream out = response.openOutput(); InputStream in = file.getStream()) {
+				transfer(in, out, r.getStart(), r.getLength());
+			}
+		} else {
+			response.setHeader("Content-Type", "multipart/byteranges; boundary=" + RANGE_BOUNDARY);
+			response.setStatus(STATUS_PARTIAL_CONTENT);
+			try (OutputStream out = response.openOutput()) {
+				for (HttpRange r : ranges) {
+					StringBuilder sb = new StringBuilder(128);
+					sb.append("\r\n--").append(RANGE_BOUNDARY).append("\r\n");
+					if (!StringUtil.isEmpty(type)) {
+						sb.append("Content-Type: ").append(type).append("\r\n");
+					}
+					sb.append("Content-Range: ").append(r.toContentRange(length)).append("\r\n\r\n");
+					out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+					try (InputStream in = file.getStream()) {
+						transfer(in, out, r.getStart(), r.getLength());
+					}
+				}
+				out.write(("\r\n--" + RANGE_BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 输出内容
+	 * 
+	 * @param in       输入流
+	 * @param out      输出流
+	 * @param position 开始位置
+	 * @param count    字节数，小于0表示到末尾
+	 * @throws IOException IO异常
+	 */
+	private static void transfer(InputStream in, OutputStream out, long position, long count) throws IOException {
+		if (in instanceof FileInputStream && out instanceof WritableByteChannel) {
+			// NIO transfer
+			FileChannel channel = ((FileInputStream) in).getChannel();
+			if (count < 0) {
+				count = channel.size() - position;
+			}
+			WritableByteChannel target = (WritableByteChannel) out;
+			while (count > 0) {
+				long l = channel.transferTo(position, count, target);
+				if (l <= 0) {
+					break;
+				}
+				position += l;
+				count -= l;
+			}
+		} else if (in instanceof ChannelInputStream && out instanceof WritableByteChannel) {
+			// 归档中的条目
+			((ChannelInputStream) in).transferTo(position, count, (WritableByteChannel) out);
+		} else if (in instanceof ByteArrayInputStreamExt) {
+			// bytes
+			ByteArrayInputStreamExt bytes = (ByteArrayInputStreamExt) in;
+			int available = bytes.available() - (int) position;
+			out.write(bytes.getBytes(), bytes.getPos() + (int) position,
+					count < 0 ? available : (int) Math.min(count, available));
+		} else if (in instanceof ByteBufferInputStream) {
+			// 缓存
+			ByteBuffer buffer = ((ByteBufferInputStream) in).getBuffer();
+			buffer.position(buffer.position() + (int) position);
+			if (count >= 0 && count < buffer.remaining()) {
+				buffer.limit(buffer.position() + (int) count);
+			}
+			if (out instanceof WritableByteChannel) {
+				WritableByteChannel channel = (WritableByteChannel) out;
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} else if (buffer.hasArray()) {
+				out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
 			} else {
-				byte[] bs = new byte[1024];
-				int l;
-				while (-1 != (l = in.read(bs))) {
+				byte[] bs = new byte[Math.min(buffer.remaining(), 8192)];
+				while (buffer.hasRemaining()) {
+					int l = Math.min(bs.length, buffer.remaining());
+					buffer.get(bs, 0, l);
 					out.write(bs, 0, l);
 				}
 			}
+		} else {
+			while (position > 0) {
+				long l = in.skip(position);
+				if (l <= 0) {
+					if (in.read() < 0) {
+						return;
+					}
+					l = 1;
+				}
+				position -= l;
+			}
+			byte[] bs = new byte[1024];
+			int l;
+			while (0 != count && -1 != (l = in.read(bs, 0, count < 0 ? bs.length : (int) Math.min(bs.length, count)))) {
+				out.write(bs, 0, l);
+				if (count > 0) {
+					count -= l;
+				}
+			}
 		}
 	}
 
@@ -270,6 +565,68 @@ public class HtmlServer extends NettyHttpServer implements RestfulService {
 		return name.substring(index);
 	}
 
+	/**
+	 * Accept-Encoding是否接受指定编码（q=0表示不接受），明确列出的编码优先于*，未列出时按*判断
+	 * 
+	 * @param accept   Accept-Encoding头
+	 * @param encoding 编码
+	 * @return 是否接受
+	 */
+	static boolean isAcceptEncoding(String accept, String encoding) {
+		if (null == accept) {
+			return false;
+		}
+		int length = accept.length();
+		int start = 0;
+		int wildcard = -1;
+		int wildcardEnd = -1;
+		while (start < length) {
+			int end = accept.indexOf(',', start);
+			if (end < 0) {
+				end = length;
+			}
+			int nameEnd = accept.indexOf(';', start);
+			if (nameEnd < 0 || nameEnd > end) {
+				nameEnd = end;
+			}
+			int b = start;
+			int e = nameEnd;
+			while (b < e && accept.charAt(b) == ' ') {
+				b++;
+			}
+			while (e > b && accept.charAt(e - 1) == ' ') {
+				e--;
+			}
+			if (e - b == encoding.length() && accept.regionMatches(true, b, encoding, 0, e - b)) {
+				return !isZeroQuality(accept, nameEnd, end);
+			}
+			if (e - b == 1 && accept.charAt(b) == '*' && wildcard < 0) {
+				wildcard = nameEnd;
+				wildcardEnd = end;
+			}
+			start = end + 1;
+		}
+		return wildcard >= 0 && !isZeroQuality(accept, wildcard, wildcardEnd);
+	}
+
+	/* 参数中是否为q=0 */
+	private static boolean isZeroQuality(String accept, int start, int end) {
+		int q = accept.indexOf("q=", start);
+		if (q < 0 || q >= end) {
+			return false;
+		}
+		for (int i = q + 2; i < end; i++) {
+			char ch = accept.charAt(i);
+			if (ch >= '1' && ch <= '9') {
+				return false;
+			}
+			if (ch != '0' && ch != '.') {
+				break;
+			}
+		}
+		return true;
+	}
+
 	/* 获取主机 */
 	private static String getHost(RestfulRequest request) {
 		return getHeader(request, "Host");
@@ -285,36 +642,24 @@ public class HtmlServer extends NettyHttpServer implements RestfulService {
 	}
 
 	/* 读取文件 */
-	private Resource readFile(String host, String uri) throws IOException {
-		HostRoutes r = get(m_Routes, host);
+	/* 只从已解析过的资源中查找 */
+	private HostRoute.Resolved readResolvedFile(String host, String uri) {
+		HostRoutes r = m_HostResolver.resolve(host);
 		if (null == r) {
 			r = m_DefaultRoute;
 		}
-		if (null == r) {
-			return null;
-		}
-		return r.findFile(uri);
+		return null == r ? null : r.findResolvedFile(uri);
 	}
 
-	/* 获取route */
-	private HostRoutes get(Map<String, HostRoutes> routes, String host) {
-		if (m_RegEnable) {
-			for (HostRoutes r : routes.values()) {
-				if (Pattern.matches(r.getName(), host)) {
-					return r;
-				}
-			}
-			return null;
-		} else if (m_AntEnable) {
-			for (HostRoutes r : routes.values()) {
-				if (AntPathPattern.match(r.getName(), host)) {
-					return r;
-				}
-			}
+	private HostRoute.Resolved readFile(String host, String uri) throws IOException {
+		HostRoutes r = m_HostResolver.resolve(host);
+		if (null == r) {
+			r = m_DefaultRoute;
+		}
+		if (null == r) {
 			return null;
-		} else {
-			return routes.get(StringUtil.toString(host));
 		}
+		return r.findFile(uri);
 	}
 
 }
@@ -11,22 +11,30 @@
 package cn.weforward.proxy;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Executor;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.StatusLine;
-import org.apache.http.client.methods.HttpGet;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,10 +44,22 @@ import cn.weforward.common.restful.RestfulRequest;
 import cn.weforward.common.restful.RestfulResponse;
 import cn.weforward.common.restful.RestfulService;
 import cn.weforward.common.sys.VmStat;
+import cn.weforward.common.util.NumberUtil;
 import cn.weforward.common.util.StringUtil;
 import cn.weforward.common.util.TimeUtil;
 import cn.weforward.protocol.aio.http.RestfulServer;
 import cn.weforward.protocol.aio.netty.NettyHttpServer;
+import cn.weforward.proxy.deploy.ArtifactCache;
+import cn.weforward.proxy.deploy.ContentStore;
+import cn.weforward.proxy.deploy.DeltaDeployer;
+import cn.weforward.proxy.deploy.DeployJob;
+import cn.weforward.proxy.deploy.DeployJobs;
+import cn.weforward.proxy.deploy.Deployer;
+import cn.weforward.proxy.deploy.Manifest;
+import cn.weforward.proxy.deploy.PeerFanout;
+import cn.weforward.proxy.deploy.WarmUp;
+import cn.weforward.proxy.util.DeployEpoch;
+import cn.weforward.proxy.util.FileResources;
 import cn.weforward.proxy.util.HttpInvoker;
 
 /**
@@ -53,10 +73,37 @@ public class ManageServer extends NettyHttpServer implements RestfulService {
 	/** 日志 */
 	static final Logger _Logger = LoggerFactory.getLogger(ManageServer.class);
 
+	/** 升级及回滚的参数 */
+	private static final String[] OPTIONS = { "url", "manifest", "checksum", "extract", "warmup", "hot", "peers",
+			"fanout", "fanoutTimeout" };
+	/** 供其它节点下载的部署包目录（项目下） */
+	private static final String ARTIFACT_DIR = ".artifact";
+
+	/** 非隐藏文件过滤 */
+	private static final FileFilter VISIBLE_FILTER = new FileFilter() {
+
+		@Override
+		public boolean accept(File file) {
+			return !file.getName().startsWith(".");
+		}
+	};
+
 	protected String m_UserName;
 	protected String m_Password;
 	protected File m_Root;
+	/** 端口 */
+	protected int m_Port;
+	/** 其它节点访问本节点的地址，如http://10.0.0.1:8081 */
+	protected String m_Advertise;
 	protected HttpInvoker m_Invoker;
+	/** 内容存储，为null时不使用 */
+	protected ContentStore m_Store;
+	/** 部署包缓存 */
+	protected ArtifactCache m_Artifacts;
+	/** 部署任务 */
+	protected DeployJobs m_Jobs = new DeployJobs(DeployJobs.DEFAULT_CONCURRENCY);
+	/** 切换前的预热，为null时不预热 */
+	protected WarmUp m_WarmUp;
 
 	/**
 	 * 构造
@@ -74,17 +121,74 @@ public class ManageServer extends NettyHttpServer implements RestfulService {
 		setHandlerFactory(server);
 		m_UserName = username;
 		m_Password = password;
-		HttpInvoker invoker = new HttpInvoker(1, 3);
+		// 下载大的部署包，读超时不能太短
+		HttpInvoker invoker = new HttpInvoker(10, 60);
 		invoker.setUserName(username);
 		invoker.setPassword(password);
 		m_Invoker = invoker;
 		m_Root = new File(root);
+		m_Port = port;
+		m_Artifacts = new ArtifactCache(new File(m_Root, ArtifactCache.CACHE_DIR), invoker);
 	}
 
 	public void setExecutor(Executor executor) {
 		((RestfulServer) m_HandlerFactory).setExecutor(executor);
 	}
 
+	/**
+	 * 启用内容存储（{root}/.store），各版本相同的文件硬链接到同一份内容
+	 * 
+	 * @param enabled 是否启用
+	 */
+	public void setContentStore(boolean enabled) {
+		m_Store = enabled ? new ContentStore(new File(m_Root, ContentStore.STORE_DIR)) : null;
+	}
+
+	/**
+	 * 部署包缓存的容量（{root}/.cache）
+	 * 
+	 * @param capacity 容量（字节），0表示不保留下载完的部署包，只用于续传
+	 */
+	public void setArtifactCacheSize(long capacity) {
+		m_Artifacts.setCapacity(capacity);
+	}
+
+	/**
+	 * 其它节点访问本节点的地址，分发部署时使用，默认为本机地址加端口
+	 * 
+	 * @param url 地址，如http://10.0.0.1:8081
+	 */
+	public void setAdvertise(String url) {
+		m_Advertise = url;
+	}
+
+	/* 其它节点访问本节点的地址 */
+	private String getAdvertise() throws IOException {
+		String url = m_Advertise;
+		if (StringUtil.isEmpty(url)) {
+			url = "http://" + InetAddress.getLocalHost().getHostAddress() + ":" + m_Port;
+		}
+		return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+	}
+
+	/**
+	 * 同时执行的部署任务数（同一项目的任务总是逐个执行）
+	 * 
+	 * @param concurrency 并发数
+	 */
+	public void setDeployConcurrency(int concurrency) {
+		m_Jobs = new DeployJobs(concurrency);
+	}
+
+	/**
+	 * 切换latest前的预热
+	 * 
+	 * @param warmUp 预热，为null时不预热
+	 */
+	public void setWarmUp(WarmUp warmUp) {
+		m_WarmUp = warmUp;
+	}
+
 	public HttpInvoker getInvoker() {
 		return m_Invoker;
 	}
@@ -110,6 +214,293 @@ public class ManageServer extends NettyHttpServer implements RestfulService {
 
 	}
 
+	/* 提交升级任务，相同的升级未完成时复用 */
+	private DeployJob submitUpgrade(final String project, final String version, final Map<String, String> options) {
+		String key = "upgrade:" + project + ":" + version + options;
+		return m_Jobs.submit(project, "upgrade", version, key, new DeployJobs.Task() {
+
+			@Override
+			public void run(DeployJob job) throws Exception {
+				upgrade(job, project, version, options);
+			}
+		});
+	}
+
+	/* 响应任务，async=true时只返回任务id，否则等待完成 */
+	private void respond(RestfulRequest request, RestfulResponse response, DeployJob job) throws IOException {
+		respond(request, response, Collections.singletonList(job));
+	}
+
+	private void respond(RestfulRequest request, RestfulResponse response, List<DeployJob> jobs)
+			throws IOException {
+		StringBuilder sb = new StringBuilder();
+		if ("true".equalsIgnoreCase(request.getParams().get("async"))) {
+			for (DeployJob job : jobs) {
+				if (sb.length() > 0) {
+					sb.append(';');
+				}
+				sb.append(job.getId());
+			}
+			ok(response, sb.toString());
+			return;
+		}
+		boolean success = true;
+		for (DeployJob job : jobs) {
+			try {
+				job.await(0);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				serviceError(response, "等待任务被中断");
+				return;
+			}
+			if (!job.isSuccess()) {
+				success = false;
+				if (sb.length() > 0) {
+					sb.append(';');
+				}
+				sb.append(job.getProject()).append(':').append(job.getMessage());
+			}
+		}
+		if (success) {
+			ok(response, "success");
+		} else {
+			serviceError(response, jobs.size() == 1 ? jobs.get(0).getMessage() : sb.toString());
+		}
+	}
+
+	/* 升级的参数，任务异步执行，需要在请求结束前复制出来 */
+	private static Map<String, String> options(DictionaryExt<String, String> param) {
+		Map<String, String> options = new TreeMap<>();
+		for (String name : OPTIONS) {
+			String v = param.get(name);
+			if (null != v) {
+				options.put(name, v);
+			}
+		}
+		return options;
+	}
+
+	/* 版本目录 */
+	private File getVersionDir(String project, String version) {
+		return new File(m_Root.getAbsolutePath() + File.separator + project + File.separator + version);
+	}
+
+	/* 下载（或增量部署）、预热并切换latest */
+	private void upgrade(DeployJob job, String project, String version, Map<String, String> options)
+			throws IOException {
+		File target = getVersionDir(project, version);
+		File file = new File(target, "file.zip");
+		File old = new File(target.getParentFile(), "old");
+		File latest = new File(target.getParentFile(), "latest");
+		String url = options.get("url");
+		String manifest = options.get("manifest");
+		List<String> peers = PeerFanout.parse(options.get("peers"));
+		PeerFanout fanout = null;
+		File artifact = null;
+		boolean done = false;
+		try {
+			if (!StringUtil.isEmpty(manifest)) {
+				// 增量部署，url为内容地址
+				job.setStage("delta");
+				File previous = latest.exists() ? latest.getCanonicalFile() : null;
+				DeltaDeployer deployer = new DeltaDeployer(getInvoker(), target.getParentFile());
+				deployer.setStore(m_Store);
+				deployer.setBytesCounter(job.getBytes());
+				deployer.deploy(version, manifest, url, previous);
+				if (!peers.isEmpty()) {
+					// 下游节点从本节点增量部署
+					String self = getAdvertise();
+					String query = "?project=" + PeerFanout.encode(project) + "&version="
+							+ PeerFanout.encode(version);
+					Map<String, String> forward = new TreeMap<>(options);
+					forward.remove("checksum");
+					forward.put("manifest", self + "/manifest" + query);
+					forward.put("url", self + "/content" + query + "&path={path}");
+					fanout = fanout(project, version, forward, peers, options);
+				}
+			} else {
+				job.setStage("download");
+				String checksum = m_Artifacts.fetch(url, options.get("checksum"), file, job);
+				boolean extract = !"false".equalsIgnoreCase(options.get("extract"));
+				if (!peers.isEmpty()) {
+					// 下游节点从本节点下载，校验和沿用或按下载的内容计算
+					if (StringUtil.isEmpty(checksum)) {
+						checksum = Manifest.digest(file.toPath());
+					}
+					if (extract) {
+						// 部署包不能留在版本目录中
+						artifact = getArtifact(project, version);
+						artifact.getParentFile().mkdirs();
+						Files.move(file.toPath(), artifact.toPath(), StandardCopyOption.REPLACE_EXISTING);
+						file = artifact;
+					}
+					Map<String, String> forward = new TreeMap<>(options);
+					forward.remove("manifest");
+					forward.put("checksum", checksum);
+					forward.put("url", getAdvertise() + "/artifact?project=" + PeerFanout.encode(project) + "&version="
+							+ PeerFanout.encode(version));
+					fanout = fanout(project, version, forward, peers, options);
+				}
+				// extract=false时不解压，由指定了archive的路由直接从file.zip读取
+				if (extract) {
+					job.setStage("extract");
+					Deployer.extract(file, target);
+					if (null == artifact) {
+						file.delete();
+					}
+					if (null != m_Store) {
+						// 去重并记下清单，供之后的增量部署使用
+						job.setStage("store");
+						m_Store.addTree(target)
+								.write(DeltaDeployer.getManifestFile(target.getParentFile(), version));
+					}
+				} else if (null != m_Store) {
+					m_Store.add(file, null);
+				}
+			}
+			job.setStage("warmup");
+			warm(resolveLink(latest, target.toPath()), options);
+			job.setStage("switch");
+			Path previous = null;
+			if (Files.isSymbolicLink(latest.toPath())) {
+				previous = Files.readSymbolicLink(latest.toPath());
+			} else if (latest.exists()) {
+				// 旧的部署方式留下的目录，无法原子替换，改名为old后迁移为软链接
+				Deployer.delete(old);
+				Files.move(latest.toPath(), old.toPath());
+			}
+			switchLink(latest, target.toPath());
+			DeployEpoch.advance();
+			invalidate(latest, target.toPath());
+			if (null != previous) {
+				switchLink(old, previous);
+			}
+			done = true;
+		} finally {
+			String failure = null;
+			if (null != fanout) {
+				job.setStage("fanout");
+				failure = fanout.await();
+			}
+			if (null != artifact) {
+				artifact.delete();
+			}
+			if (done && null != failure) {
+				throw new IOException("分发失败:" + failure);
+			}
+		}
+	}
+
+	/* 开始分发给其它节点 */
+	private PeerFanout fanout(String project, String version, Map<String, String> forward, List<String> peers,
+			Map<String, String> options) {
+		forward.remove("peers");
+		forward.remove("fanout");
+		PeerFanout fanout = new PeerFanout(getInvoker());
+		fanout.setTimeout(NumberUtil.toInt(options.get("fanoutTimeout"), PeerFanout.DEFAULT_TIMEOUT));
+		fanout.start(project, version, forward, peers,
+				NumberUtil.toInt(options.get("fanout"), PeerFanout.DEFAULT_FANOUT));
+		return fanout;
+	}
+
+	/* 供其它节点下载的部署包 */
+	private File getArtifact(String project, String version) {
+		return new File(m_Root.getAbsolutePath() + File.separator + project + File.separator + ARTIFACT_DIR
+				+ File.separator + version + ".zip");
+	}
+
+	/* 发送文件 */
+	private void sendFile(RestfulResponse response, File file) throws IOException {
+		if (null == file || !file.isFile()) {
+			response.setStatus(RestfulResponse.STATUS_NOT_FOUND);
+			response.openOutput().close();
+			return;
+		}
+		response.setHeader("Content-Type", "application/octet-stream");
+		response.setHeader("Content-Length", String.valueOf(file.length()));
+		response.setStatus(RestfulResponse.STATUS_OK);
+		try (OutputStream out = response.openOutput()) {
+			Files.copy(file.toPath(), out);
+		}
+	}
+
+	/* 预热old并切换回去 */
+	private void rollback(DeployJob job, String project, Map<String, String> options) throws IOException {
+		File dir = new File(m_Root.getAbsolutePath() + File.separator + project);
+		File old = new File(dir, "old");
+		File latest = new File(dir, "latest");
+		File back = new File(dir, "back");
+		if (!latest.exists()) {
+			throw new IOException("不存在latest");
+		}
+		if (!old.exists()) {
+			throw new IOException("不存在old");
+		}
+		if (Files.isSymbolicLink(old.toPath())) {
+			// 旧的部署方式留下的目录改名后路径会变，预热了也对不上，不预热
+			job.setStage("warmup");
+			try {
+				warm(resolveLink(old, Files.readSymbolicLink(old.toPath())), options);
+			} catch (IOException e) {
+				_Logger.warn("预热异常", e);
+			}
+		}
+		job.setStage("switch");
+		if (Files.isSymbolicLink(latest.toPath()) && Files.isSymbolicLink(old.toPath())) {
+			Path current = Files.readSymbolicLink(latest.toPath());
+			Path previous = Files.readSymbolicLink(old.toPath());
+			switchLink(back, current);
+			switchLink(latest, previous);
+			DeployEpoch.advance();
+			invalidate(latest, previous);
+			Files.delete(old.toPath());
+			return;
+		}
+		// 旧的部署方式留下的目录，无法原子切换，按原来的方式改名
+		Deployer.delete(back);
+		Files.move(latest.toPath(), back.toPath());
+		Files.move(old.toPath(), latest.toPath());
+		DeployEpoch.advance();
+		invalidate(latest, latest.toPath());
+	}
+
+	/* 刷新切换到的目录下已缓存的资源元数据，原地重新部署过的文件不再按旧的元数据应答，热点缓存按元数据校验也随之失效 */
+	private static void invalidate(File latest, Path target) {
+		FileResources.refresh(latest.getAbsolutePath(), true);
+		FileResources.refresh(resolveLink(latest, target).getPath(), true);
+	}
+
+	/* 软链接指向的目录，与路由解析版本目录（DeployEpoch）得到的路径形式一致，预热及刷新的资源才能与应答的对上 */
+	private static File resolveLink(File link, Path target) {
+		return link.toPath().resolveSibling(target).normalize().toFile();
+	}
+
+	/* 原子地把软链接指向target：先建临时链接再rename覆盖，切换过程中链接一直存在 */
+	private static void switchLink(File link, Path target) throws IOException {
+		Path path = link.toPath();
+		if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			// 旧的部署方式留下的目录（old或back），不能被链接覆盖
+			Deployer.delete(link);
+		}
+		Path tmp = path.resolveSibling("." + link.getName() + "." + System.nanoTime() + ".tmp");
+		Files.createSymbolicLink(tmp, target);
+		try {
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+	}
+
+	/* 切换前预热版本目录，warmup=false时跳过，hot指定热点文件 */
+	private void warm(File dir, Map<String, String> param) throws IOException {
+		WarmUp warmUp = m_WarmUp;
+		if (null == warmUp || "false".equalsIgnoreCase(param.get("warmup"))) {
+			return;
+		}
+		warmUp.warm(dir, param.get("hot"));
+	}
+
 	@Override
 	public void service(RestfulRequest request, RestfulResponse response) throws IOException {
 		String path = request.getUri();
@@ -119,48 +510,83 @@ public class ManageServer extends NettyHttpServer implements RestfulService {
 		if (StringUtil.isEmpty(version)) {
 			version = "none";
 		}
-		File file = new File(m_Root.getAbsolutePath() + File.separator + project + File.separator + version
-				+ File.separator + "file.zip");
-		File target = file.getParentFile();
-		File old = new File(target.getParentFile(), "old");
+		File target = getVersionDir(project, version);
 		File latest = new File(target.getParentFile(), "latest");
-		File back = new File(target.getParentFile(), "back");
 		if (path.endsWith("/upgrade")) {
+			respond(request, response, submitUpgrade(project, version, options(param)));
+		} else if (path.endsWith("/batchUpgrade")) {
+			// batch为json数组，如[{"project":"a","version":"1.0.1","url":"..."}]
+			List<DeployJob> jobs = new ArrayList<>();
 			try {
-				String url = param.get("url");
-				HttpGet get = new HttpGet(url);
-				HttpResponse res = getInvoker().execute(get);
-				StatusLine status = res.getStatusLine();
-				if (status.getStatusCode() != HttpStatus.SC_OK) {
-					throw new IOException("响应码异常" + status);
-				}
-				saveFile(file, res.getEntity().getContent());
-				unZipFiles(file, target);
-				file.delete();
-				if (latest.exists()) {
-					latest.renameTo(old);
+				JSONArray batch = new JSONArray(param.get("batch"));
+				for (int i = 0; i < batch.length(); i++) {
+					JSONObject item = batch.getJSONObject(i);
+					Map<String, String> options = new TreeMap<>();
+					for (String name : OPTIONS) {
+						String v = item.optString(name, null);
+						if (null != v) {
+							options.put(name, v);
+						}
+					}
+					jobs.add(submitUpgrade(item.optString("project"), item.optString("version", "none"), options));
 				}
-				Files.createSymbolicLink(latest.toPath(), target.toPath());
-				ok(response, "success");
-			} catch (Throwable e) {
-				_Logger.error("升级异常", e);
-				serviceError(response, e.getMessage());
+			} catch (JSONException e) {
+				serviceError(response, "batch格式异常:" + e.getMessage());
+				return;
 			}
+			respond(request, response, jobs);
 		} else if (path.endsWith("/rollback")) {
-			if (!latest.exists()) {
-				serviceError(response, "不存在latest");
+			final String p = project;
+			final Map<String, String> options = options(param);
+			DeployJob job = m_Jobs.submit(project, "rollback", null, "rollback:" + project + options,
+					new DeployJobs.Task() {
+
+						@Override
+						public void run(DeployJob job) throws Exception {
+							rollback(job, p, options);
+						}
+					});
+			respond(request, response, job);
+		} else if (path.endsWith("/job")) {
+			DeployJob job = m_Jobs.get(param.get("id"));
+			if (null == job) {
+				serviceError(response, "不存在任务");
 				return;
 			}
-			if (!old.exists()) {
-				serviceError(response, "不存在old");
-				return;
+			// wait指定最长等待完成的秒数，用于轮询进度
+			int wait = NumberUtil.toInt(param.get("wait"), 0);
+			if (wait > 0) {
+				try {
+					job.await(wait * 1000L);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
 			}
-			if (back.exists()) {
-				back.delete();
+			ok(response, job.toString());
+		} else if (path.endsWith("/artifact")) {
+			// 其它节点分发部署时下载部署包
+			File artifact = getArtifact(project, version);
+			sendFile(response, artifact.isFile() ? artifact : new File(target, "file.zip"));
+		} else if (path.endsWith("/manifest")) {
+			sendFile(response, DeltaDeployer.getManifestFile(target.getParentFile(), version));
+		} else if (path.endsWith("/content")) {
+			// 其它节点增量部署时下载文件
+			String name = param.get("path");
+			File content = null;
+			if (!StringUtil.isEmpty(name)) {
+				Path dir = target.toPath().normalize();
+				Path p = dir.resolve(name).normalize();
+				content = p.startsWith(dir) && !p.equals(dir) ? p.toFile() : null;
 			}
-			latest.renameTo(back);
-			old.renameTo(latest);
-			ok(response, "success");
+			sendFile(response, content);
+		} else if (path.endsWith("/jobs")) {
+			StringBuilder sb = new StringBuilder();
+			for (DeployJob job : m_Jobs.list()) {
+				if (StringUtil.isEmpty(project) || StringUtil.eq(project, job.getProject())) {
+					sb.append(job).append('\n');
+				}
+			}
+			ok(response, sb.toString());
 		} else if (path.endsWith("/remove")) {
 			removeIsExsit(target);
 			ok(response, "success");
@@ -169,7 +595,8 @@ public class ManageServer extends NettyHttpServer implements RestfulService {
 			File currentVersion = source.toFile();
 			ok(response, toString(currentVersion));
 		} else if (path.endsWith("/listVersion")) {
-			File[] arr = target.getParentFile().listFiles();
+			// 不列出清单等隐藏目录
+			File[] arr = target.getParentFile().listFiles(VISIBLE_FILTER);
 			StringBuilder sb = new StringBuilder();
 			if (null != arr && arr.length > 0) {
 				sb.append(toString(arr[0]));
@@ -179,6 +606,14 @@ public class ManageServer extends NettyHttpServer implements RestfulService {
 				}
 			}
 			ok(response, sb.toString());
+		} else if (path.endsWith("/gc")) {
+			if (null == m_Store) {
+				serviceError(response, "未启用内容存储");
+				return;
+			}
+			ok(response, m_Store.gc());
+		} else if (path.endsWith("/stat")) {
+			ok(response, FileResources.getStat() + ";" + m_Artifacts.getStat());
 		} else {
 			response.setStatus(RestfulResponse.STATUS_NOT_FOUND);
 			response.openOutput().close();
@@ -211,31 +646,6 @@ public class ManageServer extends NettyHttpServer implements RestfulService {
 
 	}
 
-	private void saveFile(File file, InputStream in) throws IOException {
-		if (file.exists()) {
-			file.delete();
-		} else {
-			File dir = file.getParentFile();
-			dir.mkdirs();
-		}
-		FileOutputStream out = null;
-		try {
-			out = new FileOutputStream(file);
-			byte[] bs = new byte[1024];
-			int l;
-			while ((l = in.read(bs)) != -1) {
-				out.write(bs, 0, l);
-			}
-		} finally {
-			try {
-				if (null != out) {
-					out.close();
-				}
-			} catch (Throwable e) {
-			}
-		}
-	}
-
 	/**
 	 * 解压文件到指定目录 解压后的文件名，和之前一致
 	 * 
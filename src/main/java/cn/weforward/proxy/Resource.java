@@ -20,6 +20,11 @@ import java.io.InputStream;
  *
  */
 public interface Resource {
+	/** gzip编码 */
+	String ENCODING_GZIP = "gzip";
+	/** brotli编码 */
+	String ENCODING_BR = "br";
+
 	/**
 	 * 名称
 	 * 
@@ -41,6 +46,36 @@ public interface Resource {
 	 */
 	String getLastModified();
 
+	/**
+	 * 最后修改时间
+	 * 
+	 * @return 毫秒数
+	 */
+	long getLastModifiedTime();
+
+	/**
+	 * 实体标签（强校验）
+	 * 
+	 * @return 带引号的ETag，如"1a2b-3c4d"
+	 */
+	String getETag();
+
+	/**
+	 * 内容长度
+	 * 
+	 * @return 字节数，未知时返回-1
+	 */
+	long getLength();
+
+	/**
+	 * 获取预压缩的编码版本
+	 * 
+	 * @param encoding 编码，如{@link #ENCODING_GZIP}、{@link #ENCODING_BR}
+	 * @return 对应编码的资源，不存在时返回null
+	 * @throws IOException IO异常
+	 */
+	Resource getEncoded(String encoding) throws IOException;
+
 	/**
 	 * 流
 	 * 
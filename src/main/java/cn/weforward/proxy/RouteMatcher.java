@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy;
+
+import java.util.List;
+
+/**
+ * 预编译的路径匹配器（不可变）
+ * <p>
+ * 前缀路由放入基数树，ant/正则路由使用预编译的匹配，结果与按顺序逐个匹配一致（首个匹配的路由生效）
+ * 
+ * @author daibo
+ *
+ */
+class RouteMatcher {
+	/** 路由（按配置顺序） */
+	private final HostRoute[] m_Routes;
+	/** 前缀路由树 */
+	private final Node m_Root;
+	/** 无路径（匹配所有）的首个路由序号 */
+	private final int m_MatchAll;
+	/** ant/正则路由的序号（升序） */
+	private final int[] m_Patterns;
+
+	RouteMatcher(List<HostRoute> routes) {
+		m_Routes = routes.toArray(new HostRoute[routes.size()]);
+		m_Root = new Node("");
+		int matchAll = Integer.MAX_VALUE;
+		int[] patterns = new int[m_Routes.length];
+		int count = 0;
+		for (int i = 0; i < m_Routes.length; i++) {
+			HostRoute r = m_Routes[i];
+			String path = r.getPath();
+			if (null == path || path.isEmpty()) {
+				matchAll = Math.min(matchAll, i);
+			} else if (r.isPrefixMatch()) {
+				m_Root.insert(path, 0, i);
+			} else {
+				r.compile();
+				patterns[count++] = i;
+			}
+		}
+		m_MatchAll = matchAll;
+		m_Patterns = new int[count];
+		System.arraycopy(patterns, 0, m_Patterns, 0, count);
+	}
+
+	/**
+	 * 查找首个匹配的路由
+	 * 
+	 * @param uri 资源地址
+	 * @return 路由，没有匹配时返回null
+	 */
+	HostRoute match(String uri) {
+		int best = Math.min(m_MatchAll, m_Root.find(uri));
+		for (int i : m_Patterns) {
+			if (i >= best) {
+				break;
+			}
+			if (m_Routes[i].matchPath(uri)) {
+				best = i;
+				break;
+			}
+		}
+		return best < m_Routes.length ? m_Routes[best] : null;
+	}
+
+	/**
+	 * 基数树节点
+	 * 
+	 * @author daibo
+	 *
+	 */
+	static class Node {
+		/** 空子节点 */
+		static final Node[] EMPTY = new Node[0];
+		/** 父节点到本节点的边 */
+		String m_Edge;
+		/** 以本节点结束的路由序号（最小的），没有为-1 */
+		int m_Index = -1;
+		/** 子节点 */
+		Node[] m_Children = EMPTY;
+
+		Node(String edge) {
+			m_Edge = edge;
+		}
+
+		/* 插入path[offset:]，本节点对应path[0:offset] */
+		void insert(String path, int offset, int index) {
+			if (offset == path.length()) {
+				if (m_Index < 0) {
+					m_Index = index;
+				}
+				return;
+			}
+			char ch = path.charAt(offset);
+			for (int i = 0; i < m_Children.length; i++) {
+				Node child = m_Children[i];
+				String edge = child.m_Edge;
+				if (edge.charAt(0) != ch) {
+					continue;
+				}
+				int common = 1;
+				int max = Math.min(edge.length(), path.length() - offset);
+				while (common < max && edge.charAt(common) == path.charAt(offset + common)) {
+					common++;
+				}
+				if (common < edge.length()) {
+					// 拆分边
+					Node middle = new Node(edge.substring(0, common));
+					child.m_Edge = edge.substring(common);
+					middle.m_Children = new Node[] { child };
+					m_Children[i] = middle;
+					child = middle;
+				}
+				child.insert(path, offset + common, index);
+				return;
+			}
+			Node child = new Node(path.substring(offset));
+			child.m_Index = index;
+			Node[] children = new Node[m_Children.length + 1];
+			System.arraycopy(m_Children, 0, children, 0, m_Children.length);
+			children[m_Children.length] = child;
+			m_Children = children;
+		}
+
+		/* 查找uri经过的所有前缀中最小的路由序号，没有返回Integer.MAX_VALUE */
+		int find(String uri) {
+			int best = Integer.MAX_VALUE;
+			Node node = this;
+			int pos = 0;
+			while (true) {
+				if (node.m_Index >= 0 && node.m_Index < best) {
+					best = node.m_Index;
+				}
+				if (pos >= uri.length()) {
+					break;
+				}
+				char ch = uri.charAt(pos);
+				Node next = null;
+				for (Node child : node.m_Children) {
+					if (child.m_Edge.charAt(0) == ch) {
+						next = child;
+						break;
+					}
+				}
+				if (null == next || !uri.regionMatches(pos, next.m_Edge, 0, next.m_Edge.length())) {
+					break;
+				}
+				pos += next.m_Edge.length();
+				node = next;
+			}
+			return best;
+		}
+	}
+}
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -36,8 +37,13 @@ import cn.weforward.common.util.FileUtil;
 import cn.weforward.common.util.ListUtil;
 import cn.weforward.common.util.NumberUtil;
 import cn.weforward.common.util.StringUtil;
+import cn.weforward.proxy.deploy.WarmUp;
+import cn.weforward.proxy.util.FileResources;
+import cn.weforward.proxy.util.FileWatcher;
+import cn.weforward.proxy.util.SharedWorkPool;
 import cn.weforward.proxy.util.StringResource;
 import cn.weforward.proxy.util.VersionUtil;
+import cn.weforward.proxy.util.VirtualThreadExecutor;
 
 /**
  * 服务器入口
@@ -56,12 +62,24 @@ public class ServerBoot {
 	private static final int DEFAULT_PORT = NumberUtil.toInt(System.getProperty("weforward.port"), 8080);
 	/** 默认管理端口 */
 	private static final int DEFAULT_MANAGE_PORT = NumberUtil.toInt(System.getProperty("weforward.port2"), 18080);
+	/** 默认可缓存的最大文件 */
+	private static final int DEFAULT_CACHE_MAX_FILE_SIZE = 256 * 1024;
 	/** 默认服务id */
 	private static final String DEFAULT_SERVERID = System.getProperty("weforward.serverid", "x00ff");
 
 	private static final String SERVICE_ACCESSID = System.getProperty("weforward.service.accessId");
 	private static final String SERVICE_ACCESSKEY = System.getProperty("weforward.service.accessKey");
 
+	/** 各服务共用的工作线程数（"executor":"shared"的服务使用），小于等于0时这些服务仍使用自己的线程 */
+	private static final int SHARED_WORK_THREADS = NumberUtil
+			.toInt(System.getProperty("weforward.sharedWorkThreads"), 64);
+	/** 使用共用的工作线程时各服务的IO线程数 */
+	private static final int SHARED_IO_THREADS = NumberUtil.toInt(System.getProperty("weforward.ioThreads"), 2);
+	/** 管理服务在共用线程池中的默认配额 */
+	private static final int DEFAULT_MANAGE_QUOTA = 8;
+	/** 共用的工作线程池 */
+	private static SharedWorkPool SHARED_POOL;
+
 	/** 不使用缓存的文件后缀 */
 	private static List<String> NO_CACHES_FILES = toList(System.getenv("WEFORWARD_NO_CACHES_FILES"), ".html");
 	/** 配置链接 */
@@ -258,6 +276,7 @@ public class ServerBoot {
 		}
 		config.root = val.optString("root");
 		config.host = val.optString("host");
+		config.cachePolicies = createCachePolicies(val.optJSONArray("cacheControl"));
 		List<HostRoute> routes = createRoutes(val.optJSONArray("routes"), config);
 		if ("html".equalsIgnoreCase(type)) {
 			HtmlServer s = new HtmlServer(name, port);
@@ -267,18 +286,33 @@ public class ServerBoot {
 			s.setAntEnable(val.optBoolean("ant", false));
 			s.setRegEnable(val.optBoolean("reg", false));
 			s.setGzipEnabled(val.optBoolean("gzip", false));
+			s.setPrecompressed(val.optBoolean("precompressed", false));
+			// 在IO线程中应答内存命中的请求需明确开启（"fastPath":true），默认与原来一样都交给工作线程
+			s.setFastPath(val.optBoolean("fastPath", false));
 			int gms = val.optInt("gzipMinSize", -1);
 			if (gms >= 0) {
 				s.setGzipMinSize(gms);
 			}
 			int at = val.optInt("acceptThreads", -1);
+			int wt = val.optInt("workThreads", -1);
+			String executor = val.optString("executor");
+			boolean virtual = "virtual".equalsIgnoreCase(executor);
+			// 指定了共用线程池且没有指定自己的工作线程时使用共用的线程池
+			SharedWorkPool pool = "shared".equalsIgnoreCase(executor) && wt < 0 ? getSharedPool() : null;
 			if (at >= 0) {
 				s.setAcceptThreads(at);
+			} else if (null != pool) {
+				s.setAcceptThreads(1);
 			}
-			int wt = val.optInt("workThreads", -1);
 			if (wt >= 0) {
 				s.setWorkThreads(wt);
 			}
+			if (virtual) {
+				s.setExecutor(createVirtualExecutor(name, val));
+			} else if (null != pool) {
+				s.setWorkThreads(SHARED_IO_THREADS);
+				s.setExecutor(pool.newExecutor(name, val.optInt("workQuota", 0)));
+			}
 			int idle = val.optInt("idle", -1);
 			if (idle >= 0) {
 				s.setIdle(idle);
@@ -291,12 +325,66 @@ public class ServerBoot {
 			if (mhs > 0) {
 				s.setMaxHttpSize(mhs);
 			}
+			long cs = val.optLong("cacheSize", 0);
+			if (cs > 0) {
+				s.setCache(cs, val.optInt("cacheMaxFileSize", DEFAULT_CACHE_MAX_FILE_SIZE));
+			}
 			String ka = val.optString("keepAlive");
 			if (!StringUtil.isEmpty(ka)) {
 				s.setKeepAlive(ka);
 			}
+			int mcs = val.optInt("metadataCacheSize", 0);
+			if (mcs > 0) {
+				FileResources.setCapacity(mcs);
+			}
+			int ncs = val.optInt("negativeCacheSize", 0);
+			int nct = val.optInt("negativeCacheTtl", -1);
+			if (ncs > 0 || nct >= 0) {
+				FileResources.setNegativeCache(ncs > 0 ? ncs : FileResources.DEFAULT_NEGATIVE_CAPACITY,
+						nct >= 0 ? nct : FileResources.DEFAULT_NEGATIVE_TTL);
+			}
 			s.setRoutes(routes);
+			if (val.optBoolean("watch", false)) {
+				watch(routes);
+			}
 			ManageServer ms = new ManageServer(manageName, managetPort, config.root, SERVICE_ACCESSID, SERVICE_ACCESSKEY);
+			if (virtual) {
+				ms.setExecutor(createVirtualExecutor(manageName, val));
+			} else if (null != pool) {
+				ms.setAcceptThreads(1);
+				ms.setWorkThreads(SHARED_IO_THREADS);
+				ms.setExecutor(pool.newExecutor(manageName, val.optInt("manageQuota", DEFAULT_MANAGE_QUOTA)));
+			}
+			ms.setContentStore(val.optBoolean("contentStore", false));
+			String advertise = val.optString("manageAdvertise");
+			if (!StringUtil.isEmpty(advertise)) {
+				ms.setAdvertise(advertise);
+			}
+			long acs = val.optLong("artifactCacheSize", -1);
+			if (acs >= 0) {
+				ms.setArtifactCacheSize(acs);
+			}
+			int dc = val.optInt("deployConcurrency", 0);
+			if (dc > 0) {
+				ms.setDeployConcurrency(dc);
+			}
+			// 预热需明确开启（指定字节数上限），默认不在升级时额外读盘及压缩
+			long wmb = val.optLong("warmUpMaxBytes", 0);
+			if (wmb > 0) {
+				final HtmlServer server = s;
+				WarmUp warmUp = new WarmUp();
+				warmUp.setMaxBytes(wmb);
+				// 只有启用了预压缩文件时才生成.gz
+				warmUp.setPrecompress(val.optBoolean("precompressed", false));
+				warmUp.setListener(new Consumer<File>() {
+
+					@Override
+					public void accept(File file) {
+						server.warm(file);
+					}
+				});
+				ms.setWarmUp(warmUp);
+			}
 			ms.start();
 		} else {
 			throw new IllegalArgumentException("不支持的类型" + type);
@@ -304,6 +392,38 @@ public class ServerBoot {
 
 	}
 
+	/* 共用的工作线程池，未启用时返回null */
+	private static synchronized SharedWorkPool getSharedPool() {
+		if (null == SHARED_POOL && SHARED_WORK_THREADS > 0) {
+			SHARED_POOL = new SharedWorkPool(SHARED_WORK_THREADS);
+		}
+		return SHARED_POOL;
+	}
+
+	/* 虚拟线程执行器，并发数由maxConcurrency限制 */
+	private static VirtualThreadExecutor createVirtualExecutor(String name, JSONObject val) {
+		return new VirtualThreadExecutor(name,
+				val.optInt("maxConcurrency", VirtualThreadExecutor.DEFAULT_MAX_CONCURRENCY),
+				val.optInt("workThreads", VirtualThreadExecutor.DEFAULT_PLATFORM_THREADS),
+				val.optInt("pinnedThreshold", VirtualThreadExecutor.DEFAULT_PINNED_THRESHOLD));
+	}
+
+	/* 监听路由的根目录，文件有变化时才刷新元数据 */
+	private static void watch(List<HostRoute> routes) {
+		for (HostRoute r : routes) {
+			String root = r.getRoot();
+			int index = root.indexOf("${");
+			if (index >= 0) {
+				// 含变量的根目录监听变量之前的目录
+				root = root.substring(0, Math.max(root.lastIndexOf('/', index), 0));
+			}
+			if (StringUtil.isEmpty(root) || "/".equals(root)) {
+				continue;
+			}
+			FileWatcher.watch(root);
+		}
+	}
+
 	/* 创建路由 */
 	private static List<HostRoute> createRoutes(JSONArray array, Config config) {
 		if (null == array) {
@@ -351,11 +471,41 @@ public class ServerBoot {
 			r.setAntEnable(val.optBoolean("ant", false));
 			r.setRegEnable(val.optBoolean("reg", false));
 			r.setAutoMappper(val.optBoolean("auto", false));
+			r.setArchive(val.optString("archive", null));
+			JSONArray policies = val.optJSONArray("cacheControl");
+			r.setCachePolicies(null == policies ? config.cachePolicies : createCachePolicies(policies));
 			rs.add(r);
 		}
 		return rs;
 	}
 
+	/* 创建缓存策略 */
+	private static List<CachePolicy> createCachePolicies(JSONArray array) {
+		if (null == array) {
+			return Collections.emptyList();
+		}
+		List<CachePolicy> list = new ArrayList<>();
+		for (int i = 0; i < array.length(); i++) {
+			JSONObject val = array.optJSONObject(i);
+			if (null == val) {
+				continue;
+			}
+			CachePolicy p = new CachePolicy(val.optString("match", CachePolicy.MATCH_ALL));
+			p.setValues(toList(val.optString("values"), null));
+			String pattern = val.optString("pattern");
+			if (!StringUtil.isEmpty(pattern)) {
+				p.setPattern(pattern);
+			}
+			p.setMaxAge(val.optInt("maxAge", -1));
+			p.setStaleWhileRevalidate(val.optInt("staleWhileRevalidate", 0));
+			p.setImmutable(val.optBoolean("immutable", false));
+			p.setNoCache(val.optBoolean("noCache", false));
+			p.setPublic(val.optBoolean("public", false));
+			list.add(p);
+		}
+		return list;
+	}
+
 	/* 加载文件 */
 	private static JSONObject load(InputStream in) throws IOException {
 		BufferedReader reader = null;
@@ -388,6 +538,8 @@ public class ServerBoot {
 		private String root;
 		/** 主机 */
 		private String host;
+		/** 缓存策略 */
+		private List<CachePolicy> cachePolicies = Collections.emptyList();
 
 	}
 }
@@ -0,0 +1,424 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.proxy.exception.ChecksumException;
+import cn.weforward.proxy.util.HttpInvoker;
+
+/**
+ * 部署包的本地缓存
+ * <p>
+ * 按“地址+校验和”缓存下载过的部署包，重新部署或再次升级到已下载过的版本时不再访问网络。
+ * 下载中断时保留已下载的部分（.part），下次用Range续传（带If-Range防止拼接到变化了的内容），整个文件始终按校验和校验。
+ * 校验和可由参数指定，或取自“地址.sha256”文件，都没有时取自响应头（X-Checksum-*、Digest、Content-MD5），这时下载的包不进缓存。
+ * 
+ * @author daibo
+ *
+ */
+public class ArtifactCache {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(ArtifactCache.class);
+	/** 缓存目录（在部署根目录下） */
+	public static final String CACHE_DIR = ".cache";
+	/** 默认的缓存容量（字节） */
+	public static final long DEFAULT_CAPACITY = 2L * 1024 * 1024 * 1024;
+	/** 最多尝试的次数 */
+	private static final int MAX_ATTEMPTS = 5;
+	/** 未完成的下载保留的时间（毫秒） */
+	private static final long PART_TTL = 7L * 24 * 3600 * 1000;
+	/** 缓存的部署包后缀 */
+	private static final String SUFFIX = ".zip";
+	/** 下载中的部署包后缀 */
+	private static final String PART_SUFFIX = ".part";
+	/** 续传校验器（ETag或Last-Modified）的后缀 */
+	private static final String VALIDATOR_SUFFIX = ".validator";
+	/** 最近使用时间标记的后缀，部署包与版本目录中的文件是同一inode，不能改它的修改时间 */
+	private static final String USED_SUFFIX = ".used";
+
+	/** 缓存目录 */
+	protected final File m_Dir;
+	/** HTTP调用器 */
+	protected final HttpInvoker m_Invoker;
+	/** 缓存容量（字节），0表示不保留下载完的部署包，只用于续传 */
+	protected volatile long m_Capacity = DEFAULT_CAPACITY;
+	/** 正在获取的部署包的锁，同一部署包同时只下载一次，获取完成后移除 */
+	protected final ConcurrentHashMap<String, Object> m_Locks = new ConcurrentHashMap<>();
+	/** 命中数 */
+	protected final LongAdder m_Hits = new LongAdder();
+	/** 未命中数 */
+	protected final LongAdder m_Misses = new LongAdder();
+	/** 续传次数 */
+	protected final LongAdder m_Resumes = new LongAdder();
+
+	/**
+	 * 构造
+	 * 
+	 * @param dir     缓存目录
+	 * @param invoker HTTP调用器
+	 */
+	public ArtifactCache(File dir, HttpInvoker invoker) {
+		m_Dir = dir;
+		m_Invoker = invoker;
+	}
+
+	/**
+	 * 缓存容量
+	 * 
+	 * @param capacity 容量（字节），0表示不保留下载完的部署包
+	 */
+	public void setCapacity(long capacity) {
+		m_Capacity = capacity;
+	}
+
+	/**
+	 * 获取部署包
+	 * 
+	 * @param url      地址
+	 * @param checksum 校验和，可为空
+	 * @param file     保存的文件
+	 * @param job      部署任务，用于报告进度，可为null
+	 * @return 校验过的校验和，无从校验时返回null
+	 * @throws IOException IO异常
+	 */
+	public String fetch(String url, String checksum, File file, DeployJob job) throws IOException {
+		if (StringUtil.isEmpty(checksum)) {
+			checksum = fetchSidecar(url);
+		}
+		boolean cacheable = !StringUtil.isEmpty(checksum);
+		// 校验和只取值，sha256:ab12与ab12是同一个
+		String value = cacheable ? checksum.substring(checksum.indexOf(':') + 1).trim().toLowerCase() : "";
+		String key = Manifest
+				.digest(new ByteArrayInputStream((url + "\n" + value).getBytes(StandardCharsets.UTF_8)));
+		for (;;) {
+			Object lock = m_Locks.get(key);
+			if (null == lock) {
+				Object exists = m_Locks.putIfAbsent(key, lock = new Object());
+				if (null != exists) {
+					lock = exists;
+				}
+			}
+			synchronized (lock) {
+				if (lock != m_Locks.get(key)) {
+					// 等待期间前一个获取已完成并移除了锁，重新取锁以免与新来的获取并发
+					continue;
+				}
+				try {
+					return fetch(url, checksum, cacheable, key, file, job);
+				} finally {
+					m_Locks.remove(key, lock);
+				}
+			}
+		}
+	}
+
+	private String fetch(String url, String checksum, boolean cacheable, String key, File file, DeployJob job)
+			throws IOException {
+		File cached = new File(m_Dir, key + SUFFIX);
+		if (cacheable && cached.isFile()) {
+			m_Hits.increment();
+			touch(key);
+			link(cached, file);
+			if (null != job) {
+				job.setTotal(cached.length());
+				job.getBytes().set(cached.length());
+			}
+			_Logger.info("部署包" + url + "命中缓存");
+			return checksum;
+		}
+		m_Misses.increment();
+		m_Dir.mkdirs();
+		File part = new File(m_Dir, key + PART_SUFFIX);
+		File validator = new File(m_Dir, key + VALIDATOR_SUFFIX);
+		for (int attempt = 1;; attempt++) {
+			try {
+				checksum = download(url, checksum, part, validator, job);
+				break;
+			} catch (ChecksumException e) {
+				validator.delete();
+				throw e;
+			} catch (IOException e) {
+				if (attempt >= MAX_ATTEMPTS) {
+					throw e;
+				}
+				_Logger.warn("下载" + url + "中断，第" + attempt + "次重试", e);
+				try {
+					Thread.sleep(1000L * attempt);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException("下载被中断", ie);
+				}
+			}
+		}
+		validator.delete();
+		if (cacheable && m_Capacity > 0) {
+			Files.move(part.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			touch(key);
+			link(cached, file);
+			trim();
+		} else {
+			file.getParentFile().mkdirs();
+			Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return checksum;
+	}
+
+	/* 下载（续传）到part，返回校验过的校验和 */
+	private String download(String url, String checksum, File part, File validator, DeployJob job)
+			throws IOException {
+		long offset = part.isFile() ? part.length() : 0;
+		HttpGet get = new HttpGet(url);
+		if (offset > 0) {
+			get.setHeader("Range", "bytes=" + offset + "-");
+			if (validator.isFile()) {
+				get.setHeader("If-Range", new String(Files.readAllBytes(validator.toPath()), StandardCharsets.UTF_8));
+			}
+		}
+		HttpResponse res = m_Invoker.execute(get);
+		try {
+			int code = res.getStatusLine().getStatusCode();
+			if (HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE == code && offset > 0) {
+				// 已下载完，只需校验
+				if (StringUtil.isEmpty(checksum)) {
+					checksum = getChecksum(res, false);
+				}
+				Deployer.download(new ByteArrayInputStream(new byte[0]), part, offset, checksum);
+				return checksum;
+			}
+			if (HttpStatus.SC_PARTIAL_CONTENT == code) {
+				Header range = res.getFirstHeader("Content-Range");
+				if (null == range || !range.getValue().startsWith("bytes " + offset + "-")) {
+					part.delete();
+					throw new IOException("续传的范围不符:" + range);
+				}
+				m_Resumes.increment();
+				_Logger.info("从" + offset + "续传" + url);
+			} else if (HttpStatus.SC_OK == code) {
+				offset = 0;
+			} else {
+				throw new IOException("响应码异常" + res.getStatusLine());
+			}
+			saveValidator(res, validator);
+			if (StringUtil.isEmpty(checksum)) {
+				checksum = getChecksum(res, HttpStatus.SC_OK == code);
+			}
+			long length = res.getEntity().getContentLength();
+			final AtomicLong bytes = null == job ? new AtomicLong() : job.getBytes();
+			if (null != job) {
+				job.setTotal(length < 0 ? -1 : offset + length);
+			}
+			bytes.set(offset);
+			try (InputStream in = new FilterInputStream(res.getEntity().getContent()) {
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int l = super.read(b, off, len);
+					if (l > 0) {
+						bytes.addAndGet(l);
+					}
+					return l;
+				}
+			}) {
+				Deployer.download(in, part, offset, checksum);
+			}
+			return checksum;
+		} finally {
+			HttpInvoker.consume(res);
+		}
+	}
+
+	/* 记下续传用的校验器，只用强ETag或Last-Modified */
+	private static void saveValidator(HttpResponse res, File validator) throws IOException {
+		Header etag = res.getFirstHeader("ETag");
+		Header modified = res.getFirstHeader("Last-Modified");
+		String value = null;
+		if (null != etag && !etag.getValue().startsWith("W/")) {
+			value = etag.getValue();
+		} else if (null != modified) {
+			value = modified.getValue();
+		}
+		if (null == value) {
+			validator.delete();
+		} else {
+			Files.write(validator.toPath(), value.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/* 取响应头中的校验和，Content-MD5只对完整的响应有效 */
+	private static String getChecksum(HttpResponse res, boolean complete) {
+		String[][] names = { { "X-Checksum-Sha256", "sha256" }, { "X-Checksum-Sha1", "sha1" },
+				{ "X-Checksum-Md5", "md5" } };
+		for (String[] n : names) {
+			Header h = res.getFirstHeader(n[0]);
+			if (null != h && !StringUtil.isEmpty(h.getValue())) {
+				return n[1] + ":" + h.getValue().trim();
+			}
+		}
+		// Digest: SHA-256=base64,MD5=base64
+		Header digest = res.getFirstHeader("Digest");
+		if (null != digest) {
+			for (String item : digest.getValue().split(",")) {
+				int index = item.indexOf('=');
+				if (index < 0) {
+					continue;
+				}
+				String alg = item.substring(0, index).trim().toUpperCase();
+				if ("SHA-256".equals(alg) || "SHA-512".equals(alg) || "SHA".equals(alg) || "MD5".equals(alg)) {
+					byte[] bs = decodeBase64(item.substring(index + 1));
+					if (null != bs) {
+						return ("SHA".equals(alg) ? "SHA-1" : alg) + ":" + Deployer.toHex(bs);
+					}
+				}
+			}
+		}
+		Header md5 = res.getFirstHeader("Content-MD5");
+		if (complete && null != md5) {
+			byte[] bs = decodeBase64(md5.getValue());
+			if (null != bs) {
+				return "md5:" + Deployer.toHex(bs);
+			}
+		}
+		return null;
+	}
+
+	/* 解码头中的base64值，格式错误时当作没有该头 */
+	private static byte[] decodeBase64(String value) {
+		try {
+			byte[] bs = Base64.getDecoder().decode(value.trim());
+			return bs.length > 0 ? bs : null;
+		} catch (IllegalArgumentException e) {
+			_Logger.warn("忽略格式错误的校验和:" + value);
+			return null;
+		}
+	}
+
+	/* 读取“地址.sha256”文件中的校验和，没有时返回null */
+	private String fetchSidecar(String url) {
+		int index = url.indexOf('?');
+		String sidecar = index < 0 ? url + ".sha256" : url.substring(0, index) + ".sha256" + url.substring(index);
+		try {
+			String content = m_Invoker.get(sidecar, StandardCharsets.UTF_8).trim();
+			// sha256sum的格式：“hash  文件名”
+			String hash = content.split("\\s+")[0];
+			if (hash.length() == 64) {
+				return "sha256:" + hash;
+			}
+		} catch (IOException | RuntimeException e) {
+			_Logger.debug("无" + sidecar, e);
+		}
+		return null;
+	}
+
+	/* 硬链接到目标文件，不支持时复制 */
+	private static void link(File cached, File file) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.deleteIfExists(file.toPath());
+		try {
+			Files.createLink(file.toPath(), cached.toPath());
+		} catch (IOException | UnsupportedOperationException e) {
+			Files.copy(cached.toPath(), file.toPath());
+		}
+	}
+
+	/* 更新部署包的最近使用时间 */
+	private void touch(String key) throws IOException {
+		File used = new File(m_Dir, key + USED_SUFFIX);
+		if (!used.createNewFile()) {
+			used.setLastModified(System.currentTimeMillis());
+		}
+	}
+
+	/* 部署包的最近使用时间，没有标记时取部署包的修改时间 */
+	private static long getLastUsed(File cached) {
+		String name = cached.getName();
+		File used = new File(cached.getParentFile(), name.substring(0, name.length() - SUFFIX.length()) + USED_SUFFIX);
+		long t = used.lastModified();
+		return 0 == t ? cached.lastModified() : t;
+	}
+
+	/* 按最近使用时间淘汰超出容量的部署包，并清理过期的未完成下载 */
+	private void trim() {
+		File[] files = m_Dir.listFiles();
+		if (null == files) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		final Map<File, Long> cached = new HashMap<>();
+		long total = 0;
+		for (File f : files) {
+			String name = f.getName();
+			if (name.endsWith(SUFFIX)) {
+				cached.put(f, getLastUsed(f));
+				total += f.length();
+			} else if ((name.endsWith(PART_SUFFIX) || name.endsWith(VALIDATOR_SUFFIX))
+					&& now - f.lastModified() > PART_TTL) {
+				f.delete();
+			} else if (name.endsWith(USED_SUFFIX) && !new File(m_Dir,
+					name.substring(0, name.length() - USED_SUFFIX.length()) + SUFFIX).isFile()) {
+				f.delete();
+			}
+		}
+		List<File> order = new ArrayList<>(cached.keySet());
+		Collections.sort(order, new Comparator<File>() {
+
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(cached.get(o1), cached.get(o2));
+			}
+		});
+		for (File f : order) {
+			if (total <= m_Capacity) {
+				break;
+			}
+			total -= f.length();
+			f.delete();
+			String name = f.getName();
+			new File(m_Dir, name.substring(0, name.length() - SUFFIX.length()) + USED_SUFFIX).delete();
+		}
+	}
+
+	/**
+	 * 统计信息
+	 * 
+	 * @return 统计信息
+	 */
+	public String getStat() {
+		return "artifactHits=" + m_Hits.sum() + ";artifactMisses=" + m_Misses.sum() + ";artifactResumes="
+				+ m_Resumes.sum();
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按内容寻址的存储
+ * <p>
+ * 内容按摘要保存在{存储目录}/{摘要前两位}/{摘要}，各版本目录中的文件都是指向它的硬链接，
+ * 不同版本、不同项目中相同的文件只占用一个inode，页缓存中也只有一份。
+ * <p>
+ * 只被存储引用（链接数为1）的内容由{@link #gc()}清理；存储与版本目录需在同一文件系统上，不能硬链接时保持原文件不去重。
+ * 
+ * @author daibo
+ *
+ */
+public class ContentStore {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(ContentStore.class);
+	/** 默认的存储目录名 */
+	public static final String STORE_DIR = ".store";
+	/** 存储目录 */
+	protected final File m_Dir;
+	/** 链接及加入时持读锁，清理时持写锁，避免清理掉正要链接的内容 */
+	protected final ReadWriteLock m_Lock = new ReentrantReadWriteLock();
+
+	/**
+	 * 构造
+	 * 
+	 * @param dir 存储目录
+	 */
+	public ContentStore(File dir) {
+		m_Dir = dir;
+	}
+
+	/**
+	 * 内容的存储路径
+	 * 
+	 * @param hash 摘要
+	 * @return 路径
+	 */
+	public Path getPath(String hash) {
+		if (hash.length() < 3 || !isHex(hash)) {
+			throw new IllegalArgumentException("摘要无效:" + hash);
+		}
+		return new File(new File(m_Dir, hash.substring(0, 2)), hash).toPath();
+	}
+
+	private static boolean isHex(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			if (!((ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'f'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 从存储中链接内容
+	 * 
+	 * @param hash   摘要
+	 * @param target 目标文件（不能已存在）
+	 * @return 存储中有该内容且链接成功时返回true
+	 */
+	public boolean link(String hash, File target) {
+		Path blob = getPath(hash);
+		m_Lock.readLock().lock();
+		try {
+			if (!Files.isRegularFile(blob)) {
+				return false;
+			}
+			Files.createLink(target.toPath(), blob);
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			_Logger.warn("链接" + blob + "失败", e);
+			return false;
+		} finally {
+			m_Lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 把文件加入存储：存储中已有相同内容时把文件替换为指向它的链接，否则文件本身成为存储的内容
+	 * 
+	 * @param file 文件
+	 * @param hash 摘要，为null时计算
+	 * @return 摘要
+	 * @throws IOException IO异常
+	 */
+	public String add(File file, String hash) throws IOException {
+		Path path = file.toPath();
+		if (null == hash) {
+			hash = Manifest.digest(path);
+		}
+		Path blob = getPath(hash);
+		m_Lock.readLock().lock();
+		try {
+			return add(path, blob, hash);
+		} finally {
+			m_Lock.readLock().unlock();
+		}
+	}
+
+	private String add(Path path, Path blob, String hash) throws IOException {
+		try {
+			Files.createDirectories(blob.getParent());
+			Files.createLink(blob, path);
+			return hash;// 新内容
+		} catch (FileAlreadyExistsException e) {
+			// 已有相同内容，改为链接过去
+		} catch (UnsupportedOperationException e) {
+			return hash;
+		}
+		if (Files.isSameFile(blob, path)) {
+			return hash;
+		}
+		Path tmp = path.resolveSibling("." + path.getFileName() + ".lnk");
+		Files.deleteIfExists(tmp);
+		try {
+			Files.createLink(tmp, blob);
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			_Logger.warn("去重" + path + "失败", e);
+		}
+		return hash;
+	}
+
+	/**
+	 * 把目录下所有文件加入存储
+	 * 
+	 * @param dir 目录
+	 * @return 目录的清单
+	 * @throws IOException IO异常
+	 */
+	public Manifest addTree(File dir) throws IOException {
+		final Path root = dir.toPath();
+		final Map<String, String> entries = new LinkedHashMap<>();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (attrs.isRegularFile()) {
+					String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+					entries.put(path, add(file.toFile(), null));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return new Manifest(entries);
+	}
+
+	/**
+	 * 清理不再被任何版本引用的内容
+	 * 
+	 * @return 清理结果
+	 * @throws IOException IO异常
+	 */
+	public String gc() throws IOException {
+		final long[] stat = new long[3];
+		m_Lock.writeLock().lock();
+		try {
+			if (m_Dir.isDirectory()) {
+				walkGc(stat);
+			}
+		} finally {
+			m_Lock.writeLock().unlock();
+		}
+		String result = "blobs=" + stat[0] + ";removed=" + stat[1] + ";bytes=" + stat[2];
+		_Logger.info("清理存储" + m_Dir + ":" + result);
+		return result;
+	}
+
+	/* 删除链接数为1的内容，stat依次为内容数、删除数、删除的字节数 */
+	private void walkGc(final long[] stat) throws IOException {
+		Files.walkFileTree(m_Dir.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				stat[0]++;
+				Object nlink;
+				try {
+					nlink = Files.getAttribute(file, "unix:nlink");
+				} catch (UnsupportedOperationException | IllegalArgumentException e) {
+					throw new IOException("文件系统不支持获取链接数", e);
+				}
+				if (nlink instanceof Integer && (Integer) nlink <= 1) {
+					Files.deleteIfExists(file);
+					stat[1]++;
+					stat[2] += attrs.size();
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		return m_Dir.toString();
+	}
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.proxy.util.HttpInvoker;
+
+/**
+ * 按清单增量部署
+ * <p>
+ * 新版本的清单与上一版本（latest指向的版本）的清单对比，内容相同的文件（按摘要，路径可以不同）从上一版本硬链接过来，
+ * 其余的才下载，下载和部署时间只与变更的大小相关。
+ * <p>
+ * 各版本的清单保存在{项目}/.manifest/{版本}，上一版本没有清单时（如按zip部署的）先计算一次。
+ * 
+ * @author daibo
+ *
+ */
+public class DeltaDeployer {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(DeltaDeployer.class);
+	/** 保存清单的目录名 */
+	public static final String MANIFEST_DIR = ".manifest";
+	/** 同时下载的文件数上限 */
+	private static final int DOWNLOAD_THREADS = 8;
+
+	/** HTTP调用器 */
+	protected final HttpInvoker m_Invoker;
+	/** 项目目录 */
+	protected final File m_Project;
+	/** 内容存储，为null时不使用 */
+	protected ContentStore m_Store;
+	/** 复用的文件数 */
+	protected int m_Linked;
+	/** 下载的文件数 */
+	protected int m_Downloaded;
+	/** 下载的字节数 */
+	protected AtomicLong m_Bytes = new AtomicLong();
+
+	/**
+	 * 构造
+	 * 
+	 * @param invoker 下载用的HTTP调用器
+	 * @param project 项目目录
+	 */
+	public DeltaDeployer(HttpInvoker invoker, File project) {
+		m_Invoker = invoker;
+		m_Project = project;
+	}
+
+	/**
+	 * 使用内容存储：先从存储中链接内容，复用及下载的文件也加入存储
+	 * 
+	 * @param store 内容存储
+	 */
+	public void setStore(ContentStore store) {
+		m_Store = store;
+	}
+
+	/**
+	 * 使用外部的下载字节数计数器，便于查看进度
+	 * 
+	 * @param bytes 计数器
+	 */
+	public void setBytesCounter(AtomicLong bytes) {
+		m_Bytes = bytes;
+	}
+
+	/**
+	 * 版本的清单文件
+	 * 
+	 * @param project 项目目录
+	 * @param version 版本
+	 * @return 清单文件
+	 */
+	public static File getManifestFile(File project, String version) {
+		return new File(new File(project, MANIFEST_DIR), version);
+	}
+
+	/**
+	 * 部署版本
+	 * 
+	 * @param version     版本
+	 * @param manifestUrl 清单地址
+	 * @param contentUrl  内容地址，可含{hash}及{path}占位符，不含时在其后拼接路径
+	 * @param previous    上一版本的目录（latest指向的目录），没有时为null
+	 * @return 版本目录
+	 * @throws IOException IO异常，版本正在使用（即previous）时不能原地重新部署
+	 */
+	public File deploy(String version, String manifestUrl, String contentUrl, File previous) throws IOException {
+		long start = System.currentTimeMillis();
+		File target = new File(m_Project, version);
+		if (null != previous && target.exists() && target.getCanonicalFile().equals(previous.getCanonicalFile())) {
+			// 替换目录期间latest会指向不存在的目录
+			throw new IOException("版本" + version + "正在使用，不能原地重新部署");
+		}
+		Manifest manifest = Manifest.parse(m_Invoker.get(manifestUrl, StandardCharsets.UTF_8));
+		Manifest old = null;
+		if (null != previous && previous.isDirectory()) {
+			old = getManifest(previous);
+		}
+		File tmp = new File(m_Project, "." + version + ".tmp");
+		Deployer.delete(tmp);
+		tmp.mkdirs();
+		try {
+			materialize(manifest, old, previous, contentUrl, tmp);
+			manifest.write(getManifestFile(m_Project, version));
+			replace(tmp, target);
+		} catch (IOException | RuntimeException e) {
+			Deployer.delete(tmp);
+			throw e;
+		}
+		_Logger.info("增量部署" + target + "，复用" + m_Linked + "个文件，下载" + m_Downloaded + "个文件（" + m_Bytes.get()
+				+ "字节），耗时" + (System.currentTimeMillis() - start) + "ms");
+		return target;
+	}
+
+	/**
+	 * 复用的文件数
+	 * 
+	 * @return 文件数
+	 */
+	public int getLinked() {
+		return m_Linked;
+	}
+
+	/**
+	 * 下载的文件数
+	 * 
+	 * @return 文件数
+	 */
+	public int getDownloaded() {
+		return m_Downloaded;
+	}
+
+	/**
+	 * 下载的字节数
+	 * 
+	 * @return 字节数
+	 */
+	public long getBytes() {
+		return m_Bytes.get();
+	}
+
+	/* 获取版本目录的清单，没有保存的先计算 */
+	private Manifest getManifest(File dir) throws IOException {
+		File file = getManifestFile(m_Project, dir.getName());
+		Manifest m = Manifest.read(file);
+		if (null == m) {
+			m = Manifest.compute(dir);
+			m.write(file);
+		}
+		return m;
+	}
+
+	/* 生成版本目录内容：能复用的链接，其余的下载 */
+	private void materialize(Manifest manifest, Manifest old, File previous, final String contentUrl, File dir)
+			throws IOException {
+		List<String[]> downloads = new ArrayList<>();
+		for (Map.Entry<String, String> e : manifest.getEntries().entrySet()) {
+			String path = e.getKey();
+			String hash = e.getValue();
+			File file = new File(dir, path);
+			File parent = file.getParentFile();
+			if (!parent.isDirectory()) {
+				parent.mkdirs();
+			}
+			if (null != m_Store && m_Store.link(hash, file)) {
+				m_Linked++;
+				continue;
+			}
+			if (null != old) {
+				String oldPath = hash.equals(old.getHash(path)) ? path : old.findPath(hash);
+				if (null != oldPath && link(new File(previous, oldPath), file)) {
+					if (null != m_Store) {
+						m_Store.add(file, hash);
+					}
+					m_Linked++;
+					continue;
+				}
+			}
+			downloads.add(new String[] { path, hash });
+		}
+		if (downloads.isEmpty()) {
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(downloads.size(), DOWNLOAD_THREADS));
+		try {
+			List<Future<?>> futures = new ArrayList<>(downloads.size());
+			for (final String[] d : downloads) {
+				final File file = new File(dir, d[0]);
+				futures.add(pool.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws IOException {
+						download(toUrl(contentUrl, d[0], d[1]), file, d[1]);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("部署被中断", e);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+				}
+			}
+			m_Downloaded = downloads.size();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/* 硬链接文件，不支持时复制 */
+	private static boolean link(File source, File target) {
+		Path from = source.toPath();
+		if (!Files.isRegularFile(from)) {
+			return false;
+		}
+		try {
+			Files.createLink(target.toPath(), from);
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			// 跨文件系统等情况
+		}
+		try {
+			Files.copy(from, target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+			return true;
+		} catch (IOException e) {
+			_Logger.warn("复用" + source + "失败", e);
+			return false;
+		}
+	}
+
+	/* 下载单个文件并按摘要校验 */
+	private void download(String url, File file, String hash) throws IOException {
+		HttpResponse res = m_Invoker.execute(new HttpGet(url));
+		try {
+			StatusLine status = res.getStatusLine();
+			if (status.getStatusCode() != HttpStatus.SC_OK) {
+				throw new IOException("下载" + url + "响应码异常" + status);
+			}
+			try (InputStream in = res.getEntity().getContent()) {
+				m_Bytes.addAndGet(Deployer.download(in, file, hash));
+			}
+			if (null != m_Store) {
+				m_Store.add(file, hash);
+			}
+		} finally {
+			HttpInvoker.consume(res);
+		}
+	}
+
+	/* 内容地址 */
+	static String toUrl(String contentUrl, String path, String hash) {
+		String encoded = encodePath(path);
+		if (contentUrl.contains("{hash}") || contentUrl.contains("{path}")) {
+			return contentUrl.replace("{hash}", hash).replace("{path}", encoded);
+		}
+		return contentUrl.endsWith("/") ? contentUrl + encoded : contentUrl + "/" + encoded;
+	}
+
+	/* 按段编码路径 */
+	private static String encodePath(String path) {
+		StringBuilder sb = new StringBuilder(path.length() + 16);
+		for (String segment : path.split("/")) {
+			if (sb.length() > 0) {
+				sb.append('/');
+			}
+			try {
+				sb.append(URLEncoder.encode(segment, "UTF-8").replace("+", "%20"));
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return sb.toString();
+	}
+
+	/* 用生成好的临时目录替换版本目录 */
+	private static void replace(File tmp, File target) throws IOException {
+		File old = null;
+		if (target.exists()) {
+			old = new File(target.getParentFile(), "." + target.getName() + ".old");
+			Deployer.delete(old);
+			Files.move(target.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		if (null != old) {
+			Deployer.delete(old);
+		}
+	}
+}
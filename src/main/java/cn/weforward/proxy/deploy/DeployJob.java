@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 部署任务
+ * 
+ * @author daibo
+ *
+ */
+public class DeployJob {
+	/** 排队中 */
+	public static final String STATE_QUEUED = "queued";
+	/** 执行中 */
+	public static final String STATE_RUNNING = "running";
+	/** 成功 */
+	public static final String STATE_SUCCESS = "success";
+	/** 失败 */
+	public static final String STATE_FAILED = "failed";
+
+	/** 任务id */
+	protected final String m_Id;
+	/** 项目 */
+	protected final String m_Project;
+	/** 操作，如upgrade、rollback */
+	protected final String m_Action;
+	/** 版本 */
+	protected final String m_Version;
+	/** 去重用的键，相同键的任务未完成前不会重复提交 */
+	protected final String m_Key;
+	/** 状态 */
+	protected volatile String m_State = STATE_QUEUED;
+	/** 当前阶段，如download、extract、warmup、switch */
+	protected volatile String m_Stage;
+	/** 已处理的字节数 */
+	protected final AtomicLong m_Bytes = new AtomicLong();
+	/** 总字节数，未知时为-1 */
+	protected volatile long m_Total = -1;
+	/** 结果信息 */
+	protected volatile String m_Message;
+	/** 创建时间 */
+	protected final long m_CreateTime;
+	/** 开始时间 */
+	protected volatile long m_StartTime;
+	/** 结束时间 */
+	protected volatile long m_EndTime;
+	/** 完成信号 */
+	protected final CountDownLatch m_Done = new CountDownLatch(1);
+
+	DeployJob(String id, String project, String action, String version, String key) {
+		m_Id = id;
+		m_Project = project;
+		m_Action = action;
+		m_Version = version;
+		m_Key = key;
+		m_CreateTime = System.currentTimeMillis();
+	}
+
+	public String getId() {
+		return m_Id;
+	}
+
+	public String getProject() {
+		return m_Project;
+	}
+
+	public String getKey() {
+		return m_Key;
+	}
+
+	public String getState() {
+		return m_State;
+	}
+
+	public String getMessage() {
+		return m_Message;
+	}
+
+	/**
+	 * 是否已完成（成功或失败）
+	 * 
+	 * @return 是否已完成
+	 */
+	public boolean isDone() {
+		return 0 == m_Done.getCount();
+	}
+
+	/**
+	 * 是否成功
+	 * 
+	 * @return 是否成功
+	 */
+	public boolean isSuccess() {
+		return STATE_SUCCESS.equals(m_State);
+	}
+
+	/**
+	 * 进入阶段
+	 * 
+	 * @param stage 阶段
+	 */
+	public void setStage(String stage) {
+		m_Stage = stage;
+	}
+
+	/**
+	 * 总字节数
+	 * 
+	 * @param total 总字节数，未知时为-1
+	 */
+	public void setTotal(long total) {
+		m_Total = total;
+	}
+
+	/**
+	 * 已处理字节数的计数器
+	 * 
+	 * @return 计数器
+	 */
+	public AtomicLong getBytes() {
+		return m_Bytes;
+	}
+
+	/**
+	 * 等待任务完成
+	 * 
+	 * @param millis 最长等待的毫秒数，小于等于0时一直等待
+	 * @return 是否已完成
+	 * @throws InterruptedException 等待被中断
+	 */
+	public boolean await(long millis) throws InterruptedException {
+		if (millis <= 0) {
+			m_Done.await();
+			return true;
+		}
+		return m_Done.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	void start() {
+		m_StartTime = System.currentTimeMillis();
+		m_State = STATE_RUNNING;
+	}
+
+	void finish(Throwable error) {
+		m_EndTime = System.currentTimeMillis();
+		if (null == error) {
+			m_Message = "success";
+			m_State = STATE_SUCCESS;
+		} else {
+			m_Message = null == error.getMessage() ? error.toString() : error.getMessage();
+			m_State = STATE_FAILED;
+		}
+		m_Done.countDown();
+	}
+
+	@Override
+	public String toString() {
+		long start = m_StartTime;
+		long end = m_EndTime;
+		long elapsed = 0 == start ? 0 : (0 == end ? System.currentTimeMillis() : end) - start;
+		StringBuilder sb = new StringBuilder();
+		sb.append("id=").append(m_Id);
+		sb.append(";project=").append(m_Project);
+		sb.append(";action=").append(m_Action);
+		sb.append(";version=").append(m_Version);
+		sb.append(";state=").append(m_State);
+		sb.append(";stage=").append(null == m_Stage ? "" : m_Stage);
+		sb.append(";bytes=").append(m_Bytes.get());
+		sb.append(";total=").append(m_Total);
+		sb.append(";elapsed=").append(elapsed);
+		sb.append(";message=").append(null == m_Message ? "" : m_Message);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 部署任务引擎
+ * <p>
+ * 任务在有界的线程池中执行，同一项目的任务按提交顺序逐个执行，不同项目的任务并行；未完成的相同任务（键相同）只执行一次。
+ * 
+ * @author daibo
+ *
+ */
+public class DeployJobs {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(DeployJobs.class);
+	/** 默认的并发数 */
+	public static final int DEFAULT_CONCURRENCY = 4;
+	/** 保留的已完成任务数 */
+	private static final int HISTORY_LIMIT = 256;
+
+	/**
+	 * 部署任务的执行体
+	 * 
+	 * @author daibo
+	 *
+	 */
+	public interface Task {
+		/**
+		 * 执行
+		 * 
+		 * @param job 任务，用于报告进度
+		 * @throws Exception 异常
+		 */
+		void run(DeployJob job) throws Exception;
+	}
+
+	/** 线程池 */
+	protected final ThreadPoolExecutor m_Pool;
+	/** 任务，按提交顺序 */
+	protected final LinkedHashMap<String, DeployJob> m_Jobs = new LinkedHashMap<>();
+	/** 未完成的任务，按键 */
+	protected final Map<String, DeployJob> m_Active = new HashMap<>();
+	/** 各项目等待执行的任务，项目有任务在执行时才存在 */
+	protected final Map<String, Deque<Runnable>> m_Queues = new HashMap<>();
+	/** 任务序号 */
+	protected final AtomicInteger m_Sequence = new AtomicInteger();
+
+	/**
+	 * 构造
+	 * 
+	 * @param concurrency 同时执行的任务数
+	 */
+	public DeployJobs(int concurrency) {
+		final AtomicInteger threads = new AtomicInteger();
+		ThreadFactory factory = new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "deploy-job-" + threads.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		m_Pool = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), factory);
+		m_Pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * 提交任务，已有相同键的任务未完成时返回该任务
+	 * 
+	 * @param project 项目
+	 * @param action  操作
+	 * @param version 版本
+	 * @param key     去重用的键
+	 * @param task    执行体
+	 * @return 任务
+	 */
+	public synchronized DeployJob submit(final String project, String action, String version, String key,
+			final Task task) {
+		DeployJob job = m_Active.get(key);
+		if (null != job) {
+			return job;
+		}
+		String id = Long.toString(System.currentTimeMillis(), 36) + "-" + m_Sequence.incrementAndGet();
+		final DeployJob newJob = new DeployJob(id, project, action, version, key);
+		m_Active.put(key, newJob);
+		m_Jobs.put(id, newJob);
+		trim();
+		Runnable runner = new Runnable() {
+
+			@Override
+			public void run() {
+				newJob.start();
+				try {
+					task.run(newJob);
+					newJob.finish(null);
+				} catch (Throwable e) {
+					_Logger.error("部署任务" + newJob.getId() + "异常", e);
+					newJob.finish(e);
+				} finally {
+					done(newJob);
+				}
+			}
+		};
+		Deque<Runnable> queue = m_Queues.get(project);
+		if (null == queue) {
+			m_Queues.put(project, new ArrayDeque<Runnable>());
+			m_Pool.execute(runner);
+		} else {
+			queue.add(runner);
+		}
+		return newJob;
+	}
+
+	/* 任务完成，执行同一项目的下一个任务 */
+	private synchronized void done(DeployJob job) {
+		m_Active.remove(job.getKey());
+		Deque<Runnable> queue = m_Queues.get(job.getProject());
+		Runnable next = null == queue ? null : queue.poll();
+		if (null == next) {
+			m_Queues.remove(job.getProject());
+		} else {
+			m_Pool.execute(next);
+		}
+	}
+
+	/* 只保留最近的已完成任务 */
+	private void trim() {
+		Iterator<DeployJob> it = m_Jobs.values().iterator();
+		int excess = m_Jobs.size() - HISTORY_LIMIT;
+		while (excess > 0 && it.hasNext()) {
+			if (it.next().isDone()) {
+				it.remove();
+				excess--;
+			}
+		}
+	}
+
+	/**
+	 * 获取任务
+	 * 
+	 * @param id 任务id
+	 * @return 任务，不存在时返回null
+	 */
+	public synchronized DeployJob get(String id) {
+		return m_Jobs.get(id);
+	}
+
+	/**
+	 * 最近的任务
+	 * 
+	 * @return 任务，按提交顺序
+	 */
+	public synchronized List<DeployJob> list() {
+		return new ArrayList<>(m_Jobs.values());
+	}
+}
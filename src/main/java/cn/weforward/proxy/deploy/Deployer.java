@@ -0,0 +1,369 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.common.sys.VmStat;
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.proxy.exception.ChecksumException;
+import cn.weforward.proxy.util.ChannelInputStream;
+import cn.weforward.proxy.util.ZipArchive;
+
+/**
+ * 部署流水线
+ * <p>
+ * 下载时用大的直接缓冲区流式写盘并同时计算校验和；解压时按zip的中央目录把条目分组，在ForkJoin线程池中并行写出，
+ * 每个文件先写到临时文件（按长度预分配）再改名替换，STORED的条目直接transferTo
+ * 
+ * @author daibo
+ *
+ */
+public class Deployer {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(Deployer.class);
+	/** 下载缓冲区大小 */
+	private static final int DOWNLOAD_BUFFER_SIZE = 1024 * 1024;
+	/** 解压缓冲区大小 */
+	private static final int EXTRACT_BUFFER_SIZE = 64 * 1024;
+	/** 每个任务最少处理的字节数，小文件合并处理 */
+	private static final long BATCH_BYTES = 4 * 1024 * 1024;
+	/** 解压线程池 */
+	static final ForkJoinPool POOL = new ForkJoinPool(Math.max(VmStat._cpus, 2));
+
+	private Deployer() {
+	}
+
+	/**
+	 * 下载到文件并校验
+	 * 
+	 * @param in       输入流
+	 * @param file     保存的文件
+	 * @param checksum 校验和，格式为“算法:十六进制值”（如sha256:ab12...），或按长度识别的md5/sha1/sha256十六进制值，为空时不校验
+	 * @return 写入的字节数
+	 * @throws IOException IO异常，校验失败时删除文件并抛出
+	 */
+	public static long download(InputStream in, File file, String checksum) throws IOException {
+		return download(in, file, 0, checksum);
+	}
+
+	/**
+	 * 续传到文件并校验，保留文件的前offset个字节，其余内容从输入流追加，校验的是整个文件
+	 * 
+	 * @param in       输入流，从offset开始的内容
+	 * @param file     保存的文件
+	 * @param offset   保留的字节数
+	 * @param checksum 校验和，格式同{@link #download(InputStream, File, String)}
+	 * @return 本次写入的字节数
+	 * @throws IOException IO异常，校验失败时删除文件并抛出{@link ChecksumException}
+	 */
+	public static long download(InputStream in, File file, long offset, String checksum) throws IOException {
+		MessageDigest digest = null;
+		String expected = null;
+		if (!StringUtil.isEmpty(checksum)) {
+			int index = checksum.indexOf(':');
+			expected = (index < 0 ? checksum : checksum.substring(index + 1)).trim().toLowerCase();
+			digest = getDigest(index < 0 ? guessAlgorithm(expected) : checksum.substring(0, index));
+		}
+		File dir = file.getParentFile();
+		if (null != dir) {
+			dir.mkdirs();
+		}
+		if (0 == offset) {
+			// 文件可能是链接到存储或其它版本的硬链接，重新下载时换成新的inode
+			Files.deleteIfExists(file.toPath());
+		}
+		long total = 0;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(DOWNLOAD_BUFFER_SIZE);
+		ReadableByteChannel source = Channels.newChannel(in);
+		try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.READ)) {
+			if (out.size() < offset) {
+				throw new IOException("文件" + file + "不足" + offset + "字节");
+			}
+			out.truncate(offset);
+			if (null != digest) {
+				// 已有的部分也要算进校验和
+				long position = 0;
+				while (position < offset) {
+					int l = out.read(buffer, position);
+					if (l < 0) {
+						break;
+					}
+					position += l;
+					buffer.flip();
+					digest.update(buffer);
+					buffer.clear();
+				}
+			}
+			out.position(offset);
+			boolean eof = false;
+			while (!eof) {
+				// 填满缓冲区再写，减少写盘次数
+				while (buffer.hasRemaining()) {
+					if (source.read(buffer) < 0) {
+						eof = true;
+						break;
+					}
+				}
+				buffer.flip();
+				if (null != digest) {
+					ByteBuffer view = buffer.duplicate();
+					digest.update(view);
+				}
+				while (buffer.hasRemaining()) {
+					total += out.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+		if (null != digest) {
+			String actual = toHex(digest.digest());
+			if (!actual.equals(expected)) {
+				file.delete();
+				throw new ChecksumException("校验失败，期望" + expected + "，实际" + actual);
+			}
+		}
+		return total;
+	}
+
+	/* 按十六进制的长度识别算法 */
+	private static String guessAlgorithm(String hex) {
+		switch (hex.length()) {
+		case 32:
+			return "MD5";
+		case 40:
+			return "SHA-1";
+		case 64:
+			return "SHA-256";
+		case 128:
+			return "SHA-512";
+		default:
+			throw new IllegalArgumentException("无法识别的校验和:" + hex);
+		}
+	}
+
+	/* 获取摘要算法，支持sha256等简写 */
+	private static MessageDigest getDigest(String algorithm) {
+		String name = algorithm.trim().toUpperCase();
+		if (name.startsWith("SHA") && !name.startsWith("SHA-")) {
+			name = "SHA-" + name.substring(3);
+		}
+		try {
+			return MessageDigest.getInstance(name);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("不支持的校验算法:" + algorithm, e);
+		}
+	}
+
+	/**
+	 * 转为十六进制（小写）
+	 * 
+	 * @param bs 字节
+	 * @return 十六进制
+	 */
+	public static String toHex(byte[] bs) {
+		char[] hex = "0123456789abcdef".toCharArray();
+		char[] cs = new char[bs.length * 2];
+		for (int i = 0; i < bs.length; i++) {
+			cs[i * 2] = hex[(bs[i] >> 4) & 0xF];
+			cs[i * 2 + 1] = hex[bs[i] & 0xF];
+		}
+		return new String(cs);
+	}
+
+	/**
+	 * 删除文件或目录（不跟随软链接）
+	 * 
+	 * @param file 文件或目录
+	 */
+	public static void delete(File file) {
+		if (Files.isDirectory(file.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+			File[] children = file.listFiles();
+			if (null != children) {
+				for (File c : children) {
+					delete(c);
+				}
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * 并行解压zip文件到目录
+	 * 
+	 * @param zip zip文件
+	 * @param dir 目标目录
+	 * @return 解压的文件数
+	 * @throws IOException IO异常
+	 */
+	public static int extract(File zip, File dir) throws IOException {
+		long start = System.currentTimeMillis();
+		try (ZipArchive archive = new ZipArchive(zip)) {
+			Extractor task = new Extractor(archive, dir.getCanonicalFile(), 0, archive.size());
+			try {
+				POOL.invoke(task);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			if (_Logger.isInfoEnabled()) {
+				_Logger.info("解压" + zip + "到" + dir + "，共" + archive.size() + "个文件，耗时"
+						+ (System.currentTimeMillis() - start) + "ms");
+			}
+			return archive.size();
+		}
+	}
+
+	/**
+	 * 解压任务，按字节数二分直到足够小
+	 * 
+	 * @author daibo
+	 *
+	 */
+	static class Extractor extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		/** 归档 */
+		final ZipArchive m_Archive;
+		/** 目标目录（规范路径） */
+		final File m_Dir;
+		/** 开始下标 */
+		final int m_From;
+		/** 结束下标（不含） */
+		final int m_To;
+
+		Extractor(ZipArchive archive, File dir, int from, int to) {
+			m_Archive = archive;
+			m_Dir = dir;
+			m_From = from;
+			m_To = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (m_To - m_From > 1 && getBytes() > BATCH_BYTES) {
+				int mid = (m_From + m_To) >>> 1;
+				invokeAll(new Extractor(m_Archive, m_Dir, m_From, mid),
+						new Extractor(m_Archive, m_Dir, mid, m_To));
+				return;
+			}
+			byte[] buffer = new byte[EXTRACT_BUFFER_SIZE];
+			for (int i = m_From; i < m_To; i++) {
+				try {
+					extract(i, buffer);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+		/* 范围内条目的总字节数 */
+		private long getBytes() {
+			long total = 0;
+			for (int i = m_From; i < m_To; i++) {
+				total += m_Archive.getSize(i);
+			}
+			return total;
+		}
+
+		/* 解压一个条目 */
+		private void extract(int index, byte[] buffer) throws IOException {
+			ZipArchive archive = m_Archive;
+			String name = archive.getName(index);
+			Path path = m_Dir.toPath().resolve(name).normalize();
+			if (!path.startsWith(m_Dir.toPath())) {
+				throw new ZipException("条目超出解压目录:" + name);
+			}
+			// 目录可能由其它任务正在创建，每次都确保存在
+			Files.createDirectories(path.getParent());
+			long size = archive.getSize(index);
+			long offset = archive.getDataOffset(index);
+			// 先写到同目录的临时文件再改名，目标总是新的inode，不影响正在读取或硬链接到同一文件的其它版本
+			Path tmp = path.resolveSibling("." + path.getFileName() + "." + System.nanoTime() + ".tmp");
+			boolean done = false;
+			try {
+				try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+					write(index, name, size, offset, out, buffer);
+				}
+				// 保留解压时间作为修改时间，ETag由长度与修改时间组成，沿用条目时间会让内容变了的文件得到旧的ETag
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				done = true;
+			} finally {
+				if (!done) {
+					Files.deleteIfExists(tmp);
+				}
+			}
+		}
+
+		/* 写出条目内容 */
+		private void write(int index, String name, long size, long offset, FileChannel out, byte[] buffer)
+				throws IOException {
+			ZipArchive archive = m_Archive;
+			if (ZipArchive.STORED == archive.getMethod(index)) {
+				long position = 0;
+				while (position < size) {
+					long l = archive.getChannel().transferTo(offset + position, size - position, out);
+					if (l <= 0) {
+						throw new ZipException("条目被截断:" + name);
+					}
+					position += l;
+					out.position(position);
+				}
+			} else {
+				Inflater inflater = new Inflater(true);
+				CRC32 crc = new CRC32();
+				try (InputStream in = new InflaterInputStream(new ChannelInputStream(null, archive.getChannel(), offset,
+						archive.getCompressedSize(index), new byte[1]), inflater, buffer.length)) {
+					long position = 0;
+					int l;
+					while ((l = in.read(buffer)) > 0) {
+						crc.update(buffer, 0, l);
+						ByteBuffer bb = ByteBuffer.wrap(buffer, 0, l);
+						while (bb.hasRemaining()) {
+							position += out.write(bb, position);
+						}
+					}
+					if (position != size) {
+						throw new ZipException("条目长度不符:" + name);
+					}
+					if ((int) crc.getValue() != archive.getCrc(index)) {
+						throw new ZipException("条目校验和不符:" + name);
+					}
+				} finally {
+					inflater.end();
+				}
+			}
+		}
+	}
+}
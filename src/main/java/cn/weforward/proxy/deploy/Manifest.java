@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 版本的内容清单（路径到内容摘要）
+ * <p>
+ * 格式与sha256sum的输出一致，每行“摘要 路径”，路径相对于版本目录，如：
+ * 
+ * <pre>
+ * 9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08  index.html
+ * </pre>
+ * 
+ * @author daibo
+ *
+ */
+public class Manifest {
+	/** 计算摘要使用的算法 */
+	public static final String ALGORITHM = "SHA-256";
+	/** 路径到摘要 */
+	protected final Map<String, String> m_Entries;
+	/** 摘要到路径（首次按摘要查找时建立） */
+	protected Map<String, String> m_Paths;
+
+	public Manifest(Map<String, String> entries) {
+		m_Entries = entries;
+	}
+
+	/**
+	 * 解析清单
+	 * 
+	 * @param text 清单内容
+	 * @return 清单
+	 * @throws IOException 格式错误
+	 */
+	public static Manifest parse(String text) throws IOException {
+		return parse(new StringReader(text));
+	}
+
+	/**
+	 * 解析清单
+	 * 
+	 * @param reader 清单内容
+	 * @return 清单
+	 * @throws IOException 读取异常或格式错误
+	 */
+	public static Manifest parse(Reader reader) throws IOException {
+		Map<String, String> entries = new LinkedHashMap<>();
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		while (null != (line = in.readLine())) {
+			line = line.trim();
+			if (line.isEmpty() || line.charAt(0) == '#') {
+				continue;
+			}
+			int index = 0;
+			while (index < line.length() && !Character.isWhitespace(line.charAt(index))) {
+				index++;
+			}
+			String hash = line.substring(0, index).toLowerCase();
+			String path = line.substring(index).trim();
+			if (path.startsWith("*")) {
+				path = path.substring(1);// sha256sum的二进制模式标记
+			}
+			if (path.startsWith("./")) {
+				path = path.substring(2);
+			}
+			if (hash.isEmpty() || path.isEmpty() || !isSafe(path)) {
+				throw new IOException("清单格式错误:" + line);
+			}
+			entries.put(path, hash);
+		}
+		return new Manifest(entries);
+	}
+
+	/* 路径是否安全（不能跳出版本目录） */
+	private static boolean isSafe(String path) {
+		if (path.startsWith("/") || path.indexOf('\\') >= 0) {
+			return false;
+		}
+		for (String segment : path.split("/")) {
+			if ("..".equals(segment)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 读取保存的清单
+	 * 
+	 * @param file 文件
+	 * @return 清单，文件不存在时返回null
+	 * @throws IOException IO异常
+	 */
+	public static Manifest read(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			return parse(reader);
+		}
+	}
+
+	/**
+	 * 计算目录的清单
+	 * 
+	 * @param dir 版本目录
+	 * @return 清单
+	 * @throws IOException IO异常
+	 */
+	public static Manifest compute(File dir) throws IOException {
+		final Path root = dir.toPath();
+		final Map<String, String> entries = new LinkedHashMap<>();
+		final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (attrs.isRegularFile()) {
+					String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+					entries.put(path, digest(file, buffer));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return new Manifest(entries);
+	}
+
+	/**
+	 * 计算文件的摘要
+	 * 
+	 * @param file 文件
+	 * @return 十六进制的摘要
+	 * @throws IOException IO异常
+	 */
+	public static String digest(Path file) throws IOException {
+		return digest(file, ByteBuffer.allocate(64 * 1024));
+	}
+
+	private static String digest(Path file, ByteBuffer buffer) throws IOException {
+		MessageDigest md = newDigest();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer.clear();
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				md.update(buffer);
+				buffer.clear();
+			}
+		}
+		return Deployer.toHex(md.digest());
+	}
+
+	/**
+	 * 计算内容的摘要
+	 * 
+	 * @param in 内容
+	 * @return 十六进制的摘要
+	 * @throws IOException IO异常
+	 */
+	public static String digest(InputStream in) throws IOException {
+		MessageDigest md = newDigest();
+		byte[] bs = new byte[64 * 1024];
+		int l;
+		while ((l = in.read(bs)) > 0) {
+			md.update(bs, 0, l);
+		}
+		return Deployer.toHex(md.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 保存清单（先写临时文件再替换）
+	 * 
+	 * @param file 文件
+	 * @throws IOException IO异常
+	 */
+	public void write(File file) throws IOException {
+		File dir = file.getParentFile();
+		if (null != dir) {
+			dir.mkdirs();
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		try (Writer out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, String> e : m_Entries.entrySet()) {
+				out.write(e.getValue());
+				out.write("  ");
+				out.write(e.getKey());
+				out.write('\n');
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * 所有条目
+	 * 
+	 * @return 路径到摘要
+	 */
+	public Map<String, String> getEntries() {
+		return Collections.unmodifiableMap(m_Entries);
+	}
+
+	/**
+	 * 路径的摘要
+	 * 
+	 * @param path 路径
+	 * @return 摘要，不存在时返回null
+	 */
+	public String getHash(String path) {
+		return m_Entries.get(path);
+	}
+
+	/**
+	 * 按摘要查找路径（内容相同、路径不同的文件也可复用）
+	 * 
+	 * @param hash 摘要
+	 * @return 路径，不存在时返回null
+	 */
+	public synchronized String findPath(String hash) {
+		Map<String, String> paths = m_Paths;
+		if (null == paths) {
+			paths = new HashMap<>(m_Entries.size() * 2);
+			for (Map.Entry<String, String> e : m_Entries.entrySet()) {
+				paths.put(e.getValue(), e.getKey());
+			}
+			m_Paths = paths;
+		}
+		return paths.get(hash);
+	}
+
+	/**
+	 * 条目数
+	 * 
+	 * @return 条目数
+	 */
+	public int size() {
+		return m_Entries.size();
+	}
+}
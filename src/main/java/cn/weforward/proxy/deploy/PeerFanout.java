@@ -0,0 +1,293 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.proxy.util.HttpInvoker;
+
+/**
+ * 节点间的部署分发
+ * <p>
+ * 已拿到版本的节点把其余节点按扇出数分组，每组的第一个节点从本节点下载，并负责把版本继续分发给组内的其它节点，
+ * N个节点只有根节点访问制品服务器，分发的层数为log(N)（扇出数为1时为链式）。下载的内容始终按校验和校验。
+ * 组内的节点不可达时由组内的下一个节点顶上。
+ * 
+ * @author daibo
+ *
+ */
+public class PeerFanout {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(PeerFanout.class);
+	/** 默认的扇出数 */
+	public static final int DEFAULT_FANOUT = 2;
+	/** 默认等待下游完成的秒数 */
+	public static final int DEFAULT_TIMEOUT = 30 * 60;
+	/** 查询下游任务时每次等待的秒数，需小于HTTP调用器的读超时 */
+	private static final int POLL_SECONDS = 30;
+
+	/** HTTP调用器 */
+	protected final HttpInvoker m_Invoker;
+	/** 执行分发的线程 */
+	protected ExecutorService m_Pool;
+	/** 分发中的任务，每组一个 */
+	protected List<Future<String>> m_Futures;
+	/** 等待下游完成的时间（毫秒） */
+	protected long m_Timeout = DEFAULT_TIMEOUT * 1000L;
+	/** 等待下游完成的截止时间 */
+	protected long m_Deadline;
+
+	/**
+	 * 构造
+	 * 
+	 * @param invoker HTTP调用器，需带上管理服务的账号
+	 */
+	public PeerFanout(HttpInvoker invoker) {
+		m_Invoker = invoker;
+	}
+
+	/**
+	 * 等待下游完成的时间，超出时该节点按失败报告
+	 * 
+	 * @param seconds 秒数
+	 */
+	public void setTimeout(int seconds) {
+		m_Timeout = seconds * 1000L;
+	}
+
+	/**
+	 * 把节点按扇出数分组
+	 * 
+	 * @param peers  节点
+	 * @param fanout 扇出数
+	 * @return 分组
+	 */
+	public static List<List<String>> split(List<String> peers, int fanout) {
+		int groups = Math.max(1, Math.min(fanout, peers.size()));
+		List<List<String>> result = new ArrayList<>(groups);
+		int from = 0;
+		for (int i = 0; i < groups; i++) {
+			int to = from + (peers.size() - from) / (groups - i);
+			result.add(new ArrayList<>(peers.subList(from, to)));
+			from = to;
+		}
+		return result;
+	}
+
+	/**
+	 * 解析以;分隔的节点地址
+	 * 
+	 * @param peers 节点地址，如http://10.0.0.2:8081;http://10.0.0.3:8081
+	 * @return 节点地址
+	 */
+	public static List<String> parse(String peers) {
+		List<String> result = new ArrayList<>();
+		if (StringUtil.isEmpty(peers)) {
+			return result;
+		}
+		for (String p : peers.split(";")) {
+			p = p.trim();
+			while (p.endsWith("/")) {
+				p = p.substring(0, p.length() - 1);
+			}
+			if (!p.isEmpty()) {
+				result.add(p);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 开始分发
+	 * 
+	 * @param project 项目
+	 * @param version 版本
+	 * @param options 下游升级的参数（url、manifest、checksum等已指向本节点）
+	 * @param peers   节点
+	 * @param fanout  扇出数
+	 */
+	public void start(final String project, final String version, final Map<String, String> options,
+			List<String> peers, final int fanout) {
+		List<List<String>> groups = split(peers, fanout);
+		m_Deadline = System.currentTimeMillis() + m_Timeout;
+		m_Pool = Executors.newFixedThreadPool(groups.size());
+		m_Futures = new ArrayList<>(groups.size());
+		for (final List<String> group : groups) {
+			m_Futures.add(m_Pool.submit(new Callable<String>() {
+
+				@Override
+				public String call() {
+					return deliver(project, version, options, group, fanout);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * 等待分发完成
+	 * 
+	 * @return 失败信息，都成功时返回null
+	 * @throws IOException 等待被中断
+	 */
+	public String await() throws IOException {
+		if (null == m_Futures) {
+			return null;
+		}
+		StringBuilder failures = new StringBuilder();
+		try {
+			for (Future<String> f : m_Futures) {
+				String failure;
+				try {
+					failure = f.get();
+				} catch (ExecutionException e) {
+					failure = String.valueOf(e.getCause());
+				}
+				if (null != failure) {
+					if (failures.length() > 0) {
+						failures.append(';');
+					}
+					failures.append(failure);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("分发被中断", e);
+		} finally {
+			m_Pool.shutdownNow();
+		}
+		return failures.length() > 0 ? failures.toString() : null;
+	}
+
+	/* 分发给一组节点，返回失败信息 */
+	private String deliver(String project, String version, Map<String, String> options, List<String> group,
+			int fanout) {
+		StringBuilder failures = new StringBuilder();
+		for (int i = 0; i < group.size(); i++) {
+			String peer = group.get(i);
+			List<String> rest = group.subList(i + 1, group.size());
+			String id;
+			try {
+				id = submit(peer, project, version, options, rest, fanout);
+			} catch (IOException e) {
+				// 不可达，由下一个节点负责这一组
+				_Logger.warn("分发到" + peer + "失败", e);
+				append(failures, peer + ":" + e.getMessage());
+				continue;
+			}
+			try {
+				String failure = poll(peer, id);
+				if (null != failure) {
+					append(failures, peer + ":" + failure);
+				}
+			} catch (IOException e) {
+				_Logger.warn("查询" + peer + "的任务" + id + "失败", e);
+				append(failures, peer + ":" + e.getMessage());
+			}
+			break;
+		}
+		return failures.length() > 0 ? failures.toString() : null;
+	}
+
+	private static void append(StringBuilder sb, String failure) {
+		if (sb.length() > 0) {
+			sb.append(';');
+		}
+		sb.append(failure);
+	}
+
+	/* 让节点异步升级，返回任务id */
+	private String submit(String peer, String project, String version, Map<String, String> options,
+			List<String> rest, int fanout) throws IOException {
+		Map<String, String> params = new TreeMap<>(options);
+		params.put("project", project);
+		params.put("version", version);
+		params.put("async", "true");
+		if (!rest.isEmpty()) {
+			params.put("peers", String.join(";", rest));
+			params.put("fanout", String.valueOf(fanout));
+		}
+		StringBuilder url = new StringBuilder(peer).append("/upgrade");
+		char sep = '?';
+		for (Map.Entry<String, String> e : params.entrySet()) {
+			url.append(sep).append(e.getKey()).append('=').append(encode(e.getValue()));
+			sep = '&';
+		}
+		return m_Invoker.get(url.toString(), StandardCharsets.UTF_8).trim();
+	}
+
+	/* 等待节点的任务完成，返回失败信息 */
+	private String poll(String peer, String id) throws IOException {
+		String url = peer + "/job?id=" + encode(id) + "&wait=";
+		while (true) {
+			long remaining = m_Deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return "任务" + id + "超过" + (m_Timeout / 1000) + "秒未完成";
+			}
+			int wait = (int) Math.min(POLL_SECONDS, (remaining + 999) / 1000);
+			String status = m_Invoker.get(url + wait, StandardCharsets.UTF_8);
+			String state = getField(status, "state");
+			if (DeployJob.STATE_SUCCESS.equals(state)) {
+				return null;
+			}
+			if (DeployJob.STATE_FAILED.equals(state)) {
+				return getField(status, "message");
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				return "分发被中断";
+			}
+		}
+	}
+
+	/* 取出任务信息（a=1;b=2）中的字段，message在最后，可含分号 */
+	private static String getField(String status, String name) {
+		String prefix = name + "=";
+		int index = status.startsWith(prefix) ? 0 : status.indexOf(";" + prefix);
+		if (index < 0) {
+			return null;
+		}
+		int start = index + (0 == index ? 0 : 1) + prefix.length();
+		if ("message".equals(name)) {
+			return status.substring(start).trim();
+		}
+		int end = status.indexOf(';', start);
+		return end < 0 ? status.substring(start).trim() : status.substring(start, end);
+	}
+
+	/**
+	 * 编码参数值
+	 * 
+	 * @param value 值
+	 * @return 编码后的值
+	 */
+	public static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.common.util.StringUtil;
+
+/**
+ * 切换版本前的预热
+ * <p>
+ * 在latest切换前读一遍新版本的文件（热点列表中的优先，总量有上限）使其进入页缓存，交给监听者填充元数据及内存缓存，
+ * 并为可压缩的文件预先生成.gz文件，切换后的第一波请求不再落到冷的磁盘、元数据及压缩上。
+ * <p>
+ * 热点列表可由参数指定，或放在版本目录下的.warmup文件中，每行一个相对路径；都没有时按目录顺序预热（index.html优先）。
+ * 
+ * @author daibo
+ *
+ */
+public class WarmUp {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(WarmUp.class);
+	/** 热点列表文件 */
+	public static final String HOT_LIST = ".warmup";
+	/** 默认的预热字节数上限 */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+	/** 小于此大小的文件不预压缩 */
+	private static final int MIN_COMPRESS_SIZE = 1024;
+	/** 可压缩的文件后缀 */
+	private static final Set<String> COMPRESSIBLE = new HashSet<>(Arrays.asList(".html", ".htm", ".js", ".mjs",
+			".css", ".json", ".map", ".svg", ".txt", ".xml", ".wasm", ".ico", ".ttf", ".otf", ".eot"));
+	/** 主页 */
+	private static final String INDEX = "index.html";
+
+	/** 预热字节数上限 */
+	protected long m_MaxBytes = DEFAULT_MAX_BYTES;
+	/** 是否预压缩 */
+	protected boolean m_Precompress = true;
+	/** 文件读取后的监听者（填充元数据及内存缓存） */
+	protected Consumer<File> m_Listener;
+
+	/**
+	 * 预热字节数上限
+	 * 
+	 * @param maxBytes 上限
+	 */
+	public void setMaxBytes(long maxBytes) {
+		m_MaxBytes = maxBytes;
+	}
+
+	/**
+	 * 是否为可压缩的文件生成.gz文件
+	 * 
+	 * @param precompress 是否预压缩
+	 */
+	public void setPrecompress(boolean precompress) {
+		m_Precompress = precompress;
+	}
+
+	/**
+	 * 文件读取后的监听者
+	 * 
+	 * @param listener 监听者
+	 */
+	public void setListener(Consumer<File> listener) {
+		m_Listener = listener;
+	}
+
+	/**
+	 * 预热版本目录
+	 * 
+	 * @param dir 版本目录
+	 * @param hot 热点列表（以;分隔的相对路径），为空时使用.warmup文件或整个目录
+	 * @return 预热结果
+	 * @throws IOException IO异常
+	 */
+	public String warm(File dir, String hot) throws IOException {
+		long start = System.currentTimeMillis();
+		List<File> files = listFiles(dir, hot);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+		List<Future<Boolean>> compressions = new ArrayList<>();
+		long bytes = 0;
+		int count = 0;
+		for (final File file : files) {
+			if (bytes >= m_MaxBytes) {
+				break;
+			}
+			bytes += read(file, buffer);
+			count++;
+			if (null != m_Listener) {
+				m_Listener.accept(file);
+			}
+			if (m_Precompress && isCompressible(file)) {
+				compressions.add(Deployer.POOL.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws IOException {
+						return compress(file);
+					}
+				}));
+			}
+		}
+		int compressed = 0;
+		for (Future<Boolean> f : compressions) {
+			try {
+				if (f.get()) {
+					compressed++;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("预热被中断", e);
+			} catch (ExecutionException e) {
+				_Logger.warn("预压缩失败", e.getCause());
+			}
+		}
+		if (null != m_Listener && compressed > 0) {
+			for (File file : files) {
+				File gz = new File(file.getPath() + ".gz");
+				if (gz.isFile()) {
+					m_Listener.accept(gz);
+				}
+			}
+		}
+		String result = "files=" + count + ";bytes=" + bytes + ";compressed=" + compressed + ";ms="
+				+ (System.currentTimeMillis() - start);
+		_Logger.info("预热" + dir + ":" + result);
+		return result;
+	}
+
+	/* 要预热的文件，热点列表优先 */
+	private List<File> listFiles(File dir, String hot) throws IOException {
+		Set<File> files = new LinkedHashSet<>();
+		List<String> paths = new ArrayList<>();
+		if (!StringUtil.isEmpty(hot)) {
+			paths.addAll(Arrays.asList(hot.split(";")));
+		} else {
+			File list = new File(dir, HOT_LIST);
+			if (list.isFile()) {
+				paths.addAll(Files.readAllLines(list.toPath(), StandardCharsets.UTF_8));
+			}
+		}
+		Path base = dir.toPath().toAbsolutePath().normalize();
+		Path real = null;
+		for (String p : paths) {
+			p = p.trim();
+			if (p.isEmpty() || p.startsWith("#")) {
+				continue;
+			}
+			// 与/content相同，不能跳出版本目录
+			Path path = base.resolve(p).normalize();
+			if (!path.startsWith(base) || path.equals(base) || !Files.isRegularFile(path)) {
+				_Logger.warn("忽略预热路径" + p);
+				continue;
+			}
+			// 软链接指向的实际文件也须在版本目录下
+			if (null == real) {
+				real = base.toRealPath();
+			}
+			if (!path.toRealPath().startsWith(real)) {
+				_Logger.warn("忽略预热路径" + p);
+				continue;
+			}
+			files.add(path.toFile());
+		}
+		if (paths.isEmpty()) {
+			File index = new File(dir, INDEX);
+			if (index.isFile()) {
+				files.add(index);
+			}
+			final List<File> all = new ArrayList<>();
+			Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+					return isHidden(d.toFile()) && !d.equals(dir.toPath()) ? FileVisitResult.SKIP_SUBTREE
+							: FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					File f = file.toFile();
+					if (attrs.isRegularFile() && !isHidden(f) && !isEncoded(f)) {
+						all.add(f);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			files.addAll(all);
+		}
+		return new ArrayList<>(files);
+	}
+
+	private static boolean isHidden(File file) {
+		return file.getName().startsWith(".");
+	}
+
+	private static boolean isEncoded(File file) {
+		String name = file.getName();
+		return name.endsWith(".gz") || name.endsWith(".br");
+	}
+
+	/* 读取文件使其进入页缓存 */
+	private static long read(File file, ByteBuffer buffer) {
+		long total = 0;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			int l;
+			buffer.clear();
+			while ((l = channel.read(buffer)) >= 0) {
+				total += l;
+				buffer.clear();
+			}
+		} catch (IOException e) {
+			_Logger.warn("预热" + file + "失败", e);
+		}
+		return total;
+	}
+
+	private static boolean isCompressible(File file) {
+		String name = file.getName();
+		int index = name.lastIndexOf('.');
+		return index >= 0 && COMPRESSIBLE.contains(name.substring(index).toLowerCase())
+				&& file.length() >= MIN_COMPRESS_SIZE;
+	}
+
+	/* 生成.gz文件，已存在或压缩后没变小时不生成 */
+	private static boolean compress(File file) throws IOException {
+		File gz = new File(file.getPath() + ".gz");
+		if (gz.exists()) {
+			return false;
+		}
+		File tmp = new File(file.getParentFile(), "." + file.getName() + ".gz.tmp");
+		// 删除残留的临时文件（或同名软链接）后独占创建，不会写到链接指向的位置
+		Files.deleteIfExists(tmp.toPath());
+		try (InputStream in = Files.newInputStream(file.toPath());
+				OutputStream out = new GZIPOutputStream(
+						Files.newOutputStream(tmp.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+						64 * 1024) {
+					{
+						def.setLevel(Deflater.BEST_COMPRESSION);
+					}
+				}) {
+			byte[] bs = new byte[64 * 1024];
+			int l;
+			while ((l = in.read(bs)) > 0) {
+				out.write(bs, 0, l);
+			}
+		}
+		if (tmp.length() >= file.length()) {
+			tmp.delete();
+			return false;
+		}
+		// 与原文件同一修改时间，便于排查
+		tmp.setLastModified(file.lastModified());
+		Files.move(tmp.toPath(), gz.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		return true;
+	}
+}
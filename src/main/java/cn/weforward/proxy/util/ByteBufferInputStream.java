@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于ByteBuffer的输入流，可获取其内部的缓冲区直接输出
+ * 
+ * @author daibo
+ *
+ */
+public class ByteBufferInputStream extends InputStream {
+	/** 缓冲区 */
+	protected ByteBuffer m_Buffer;
+
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		m_Buffer = buffer;
+	}
+
+	/**
+	 * 剩余未读的缓冲区（共享内容，独立位置）
+	 * 
+	 * @return 缓冲区
+	 */
+	public ByteBuffer getBuffer() {
+		return m_Buffer.duplicate();
+	}
+
+	@Override
+	public int read() {
+		if (!m_Buffer.hasRemaining()) {
+			return -1;
+		}
+		return m_Buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int remaining = m_Buffer.remaining();
+		if (remaining <= 0) {
+			return -1;
+		}
+		len = Math.min(len, remaining);
+		m_Buffer.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public long skip(long n) {
+		if (n <= 0) {
+			return 0;
+		}
+		int l = (int) Math.min(n, m_Buffer.remaining());
+		m_Buffer.position(m_Buffer.position() + l);
+		return l;
+	}
+
+	@Override
+	public int available() {
+		return m_Buffer.remaining();
+	}
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.proxy.Resource;
+
+/**
+ * 内存缓存的资源，内容保存在（堆外）缓冲区中
+ * 
+ * @author daibo
+ *
+ */
+public class CachedResource implements Resource {
+	/** 源资源 */
+	protected final Resource m_Source;
+	/** 内容 */
+	protected final ByteBuffer m_Body;
+	/** 缓存时的最后修改时间 */
+	protected final String m_LastModified;
+	/** 缓存时的长度 */
+	protected final long m_Length;
+	/** 缓存时的修改时间 */
+	protected final long m_Time;
+	/** 缓存时的实体标签 */
+	protected final String m_ETag;
+
+	public CachedResource(Resource source, ByteBuffer body, String lastModified, long time, String etag) {
+		m_Source = source;
+		m_Body = body.asReadOnlyBuffer();
+		m_LastModified = lastModified;
+		m_Length = body.remaining();
+		m_Time = time;
+		m_ETag = etag;
+	}
+
+	/**
+	 * 源资源
+	 * 
+	 * @return 资源
+	 */
+	public Resource getSource() {
+		return m_Source;
+	}
+
+	/**
+	 * 缓存内容是否与源资源一致
+	 * 
+	 * @param source 源资源
+	 * @return 是否一致
+	 */
+	public boolean isValid(Resource source) {
+		return source.exists() && m_Length == source.getLength() && StringUtil.eq(m_ETag, source.getETag())
+				&& StringUtil.eq(m_LastModified, source.getLastModified());
+	}
+
+	@Override
+	public String getName() {
+		return m_Source.getName();
+	}
+
+	@Override
+	public boolean exists() {
+		return true;
+	}
+
+	@Override
+	public String getLastModified() {
+		return m_LastModified;
+	}
+
+	@Override
+	public long getLastModifiedTime() {
+		return m_Time;
+	}
+
+	@Override
+	public String getETag() {
+		return m_ETag;
+	}
+
+	@Override
+	public long getLength() {
+		return m_Length;
+	}
+
+	@Override
+	public Resource getEncoded(String encoding) {
+		return null;
+	}
+
+	@Override
+	public InputStream getStream() throws IOException {
+		return new ByteBufferInputStream(m_Body.duplicate());
+	}
+
+	@Override
+	public String toString() {
+		return "cached:" + m_Source;
+	}
+}
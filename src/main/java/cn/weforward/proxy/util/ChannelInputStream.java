@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 文件通道中一段区域的输入流，可在区域前后附加字节（如gzip的头及尾）
+ * <p>
+ * 按位置读取，不改变通道的位置，多个流可共享同一通道；输出到通道时区域部分使用transferTo零拷贝
+ * 
+ * @author daibo
+ *
+ */
+public class ChannelInputStream extends InputStream {
+	/** 空字节 */
+	private static final byte[] EMPTY = new byte[0];
+	/** 区域前的字节 */
+	protected final byte[] m_Head;
+	/** 文件通道 */
+	protected final FileChannel m_Channel;
+	/** 区域在通道中的开始位置 */
+	protected final long m_Offset;
+	/** 区域长度 */
+	protected final long m_Length;
+	/** 区域后的字节 */
+	protected final byte[] m_Tail;
+	/** 当前位置（含头） */
+	protected long m_Position;
+	/** 关闭时释放的引用（如共享通道的归档），可为null */
+	protected Closeable m_Release;
+
+	public ChannelInputStream(FileChannel channel, long offset, long length) {
+		this(null, channel, offset, length, null);
+	}
+
+	public ChannelInputStream(byte[] head, FileChannel channel, long offset, long length, byte[] tail) {
+		this(head, channel, offset, length, tail, null);
+	}
+
+	/**
+	 * 构造
+	 * 
+	 * @param head    区域前的字节，可为null
+	 * @param channel 文件通道
+	 * @param offset  区域在通道中的开始位置
+	 * @param length  区域长度
+	 * @param tail    区域后的字节，可为null
+	 * @param release 关闭时释放的引用，可为null
+	 */
+	public ChannelInputStream(byte[] head, FileChannel channel, long offset, long length, byte[] tail,
+			Closeable release) {
+		m_Release = release;
+		m_Head = null == head ? EMPTY : head;
+		m_Channel = channel;
+		m_Offset = offset;
+		m_Length = length;
+		m_Tail = null == tail ? EMPTY : tail;
+	}
+
+	/**
+	 * 总长度（含头及尾）
+	 * 
+	 * @return 长度
+	 */
+	public long getTotal() {
+		return m_Head.length + m_Length + m_Tail.length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == 1 ? (b[0] & 0xFF) : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		long pos = m_Position;
+		long head = m_Head.length;
+		if (pos < head) {
+			int l = (int) Math.min(len, head - pos);
+			System.arraycopy(m_Head, (int) pos, b, off, l);
+			m_Position += l;
+			return l;
+		}
+		long end = head + m_Length;
+		if (pos < end) {
+			int l = (int) Math.min(len, end - pos);
+			int n = m_Channel.read(ByteBuffer.wrap(b, off, l), m_Offset + pos - head);
+			if (n <= 0) {
+				throw new EOFException("文件被截断，缺少" + (end - pos) + "字节");
+			}
+			m_Position += n;
+			return n;
+		}
+		long total = end + m_Tail.length;
+		if (pos < total) {
+			int l = (int) Math.min(len, total - pos);
+			System.arraycopy(m_Tail, (int) (pos - end), b, off, l);
+			m_Position += l;
+			return l;
+		}
+		return -1;
+	}
+
+	@Override
+	public long skip(long n) {
+		if (n <= 0) {
+			return 0;
+		}
+		long l = Math.min(n, getTotal() - m_Position);
+		m_Position += l;
+		return l;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(getTotal() - m_Position, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * 输出到通道，区域部分使用transferTo
+	 * 
+	 * @param position 开始位置（相对当前位置）
+	 * @param count    字节数，小于0表示到末尾
+	 * @param target   目标通道
+	 * @throws IOException IO异常
+	 */
+	public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		long pos = m_Position + position;
+		long total = getTotal();
+		long end = (count < 0) ? total : Math.min(total, pos + count);
+		long head = m_Head.length;
+		long tail = head + m_Length;
+		if (pos < head) {
+			write(target, ByteBuffer.wrap(m_Head, (int) pos, (int) (Math.min(end, head) - pos)));
+			pos = head;
+		}
+		while (pos < end && pos < tail) {
+			long l = m_Channel.transferTo(m_Offset + pos - head, Math.min(end, tail) - pos, target);
+			if (l <= 0) {
+				// 不能输出少于Content-Length的内容
+				throw new EOFException("文件被截断，缺少" + (Math.min(end, tail) - pos) + "字节");
+			}
+			pos += l;
+		}
+		if (pos < end && pos >= tail) {
+			write(target, ByteBuffer.wrap(m_Tail, (int) (pos - tail), (int) (end - pos)));
+			pos = end;
+		}
+		m_Position = pos;
+	}
+
+	private static void write(WritableByteChannel target, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			target.write(buffer);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		// 通道由所属的归档共享，不在此关闭，只释放引用
+		Closeable release = m_Release;
+		if (null != release) {
+			m_Release = null;
+			release.close();
+		}
+	}
+}
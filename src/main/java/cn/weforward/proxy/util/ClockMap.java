@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 有上限的映射，超出上限时按CLOCK算法淘汰（与{@link FileResources}的资源表相同）
+ * <p>
+ * 命中只置访问标记，不加锁；淘汰时时钟指针跳过有标记的条目并清除标记，只淘汰一圈内未被访问的，
+ * 不会像整个清空那样让热点条目一起失效。
+ * 
+ * @author daibo
+ *
+ * @param <K> 键
+ * @param <V> 值
+ */
+public class ClockMap<K, V> {
+	/** 条目 */
+	protected final Map<K, Node<V>> m_Map = new ConcurrentHashMap<>();
+	/** 淘汰锁 */
+	protected final ReentrantLock m_Lock = new ReentrantLock();
+	/** 上限 */
+	protected final int m_Capacity;
+	/** 时钟指针 */
+	protected Iterator<Map.Entry<K, Node<V>>> m_Hand;
+
+	/**
+	 * 构造
+	 * 
+	 * @param capacity 上限
+	 */
+	public ClockMap(int capacity) {
+		m_Capacity = Math.max(capacity, 1);
+	}
+
+	/**
+	 * 获取
+	 * 
+	 * @param key 键
+	 * @return 值，没有时返回null
+	 */
+	public V get(K key) {
+		Node<V> n = m_Map.get(key);
+		if (null == n) {
+			return null;
+		}
+		if (!n.m_Referenced) {
+			n.m_Referenced = true;// 已置位时不再写，减少缓存行争用
+		}
+		return n.m_Value;
+	}
+
+	/**
+	 * 是否包含
+	 * 
+	 * @param key 键
+	 * @return 是否包含
+	 */
+	public boolean containsKey(K key) {
+		return m_Map.containsKey(key);
+	}
+
+	/**
+	 * 放入，超出上限时淘汰
+	 * 
+	 * @param key   键
+	 * @param value 值
+	 */
+	public void put(K key, V value) {
+		Node<V> old = m_Map.put(key, new Node<V>(value));
+		if (null == old && m_Map.size() > m_Capacity) {
+			evict();
+		}
+	}
+
+	/**
+	 * 移除
+	 * 
+	 * @param key 键
+	 */
+	public void remove(K key) {
+		m_Map.remove(key);
+	}
+
+	/**
+	 * 清空
+	 */
+	public void clear() {
+		m_Map.clear();
+	}
+
+	/**
+	 * 条目数
+	 * 
+	 * @return 条目数
+	 */
+	public int size() {
+		return m_Map.size();
+	}
+
+	/* 淘汰超出上限的条目，已有线程在淘汰时直接返回 */
+	private void evict() {
+		if (!m_Lock.tryLock()) {
+			return;
+		}
+		try {
+			// 转两圈必定能清完访问标记，并发写入时也不会无限循环
+			long limit = 2L * m_Map.size() + 1;
+			while (m_Map.size() > m_Capacity && limit-- > 0) {
+				if (null == m_Hand || !m_Hand.hasNext()) {
+					m_Hand = m_Map.entrySet().iterator();
+					if (!m_Hand.hasNext()) {
+						break;
+					}
+				}
+				Map.Entry<K, Node<V>> e = m_Hand.next();
+				Node<V> n = e.getValue();
+				if (n.m_Referenced) {
+					n.m_Referenced = false;
+					continue;
+				}
+				m_Map.remove(e.getKey(), n);
+			}
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/**
+	 * 条目
+	 * 
+	 * @param <V> 值
+	 */
+	static class Node<V> {
+		/** 值 */
+		final V m_Value;
+		/** 访问标记 */
+		volatile boolean m_Referenced;
+
+		Node(V value) {
+			m_Value = value;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 部署纪元
+ * <p>
+ * 部署通过切换latest等软链接完成，每个纪元内软链接只解析一次，解析到的实际版本目录不会再变，
+ * 其下的文件元数据可以完全缓存。升级或回滚时推进纪元，之前的解析结果及按其缓存的路由全部作废。
+ * <p>
+ * 为防止绕过管理服务手工切换软链接，解析结果每隔一段时间（{@link #RECHECK_INTERVAL}）重新读取一次链接，发现变化时同样推进纪元。
+ * 
+ * @author daibo
+ *
+ */
+public class DeployEpoch {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(DeployEpoch.class);
+	/** 重新读取链接的间隔（毫秒） */
+	public static final int RECHECK_INTERVAL = 5000;
+	/** 解析结果的上限，超出时按CLOCK淘汰 */
+	private static final int RESOLVED_LIMIT = 4096;
+	/** 软链接的最大层数 */
+	private static final int MAX_LINKS = 8;
+	/** 当前纪元 */
+	private static final AtomicLong EPOCH = new AtomicLong();
+	/** 解析结果 */
+	private static final ClockMap<String, Resolved> RESOLVED = new ClockMap<>(RESOLVED_LIMIT);
+
+	private DeployEpoch() {
+	}
+
+	/**
+	 * 当前纪元
+	 * 
+	 * @return 纪元
+	 */
+	public static long get() {
+		return EPOCH.get();
+	}
+
+	/**
+	 * 推进纪元（部署的软链接已切换）
+	 * 
+	 * @return 新的纪元
+	 */
+	public static long advance() {
+		RESOLVED.clear();
+		long epoch = EPOCH.incrementAndGet();
+		_Logger.info("部署纪元推进到" + epoch);
+		return epoch;
+	}
+
+	/**
+	 * 路径被替换（如文件监听发现软链接被重建），若已解析过则推进纪元
+	 * 
+	 * @param path 路径
+	 */
+	public static void invalidate(String path) {
+		if (RESOLVED.containsKey(path)) {
+			advance();
+		}
+	}
+
+	/**
+	 * 解析版本目录
+	 * 
+	 * @param dir 版本目录，如{root}/latest
+	 * @return 软链接指向的实际目录，不是软链接时返回dir本身
+	 */
+	public static String resolve(String dir) {
+		long now = System.currentTimeMillis();
+		Resolved r = RESOLVED.get(dir);
+		if (null != r && r.m_Epoch == EPOCH.get()) {
+			if (now < r.m_CheckTime) {
+				return r.m_Target;
+			}
+			String target = readLink(dir);
+			if (target.equals(r.m_Target)) {
+				r.m_CheckTime = now + RECHECK_INTERVAL;
+				return r.m_Target;
+			}
+			_Logger.info("发现" + dir + "已切换到" + target);
+			advance();
+		}
+		long epoch = EPOCH.get();
+		String target = readLink(dir);
+		RESOLVED.put(dir, new Resolved(epoch, target, now + RECHECK_INTERVAL));
+		return target;
+	}
+
+	/* 读取软链接（含多层）指向的目录 */
+	private static String readLink(String dir) {
+		Path path = Paths.get(dir);
+		try {
+			for (int i = 0; i < MAX_LINKS && Files.isSymbolicLink(path); i++) {
+				path = path.resolveSibling(Files.readSymbolicLink(path)).normalize();
+			}
+		} catch (IOException e) {
+			_Logger.warn("读取软链接失败:" + dir, e);
+			return dir;
+		}
+		String target = path.toString();
+		return target.equals(dir) ? dir : target;
+	}
+
+	/**
+	 * 解析结果
+	 * 
+	 * @author daibo
+	 *
+	 */
+	static class Resolved {
+		/** 所属纪元 */
+		final long m_Epoch;
+		/** 实际目录 */
+		final String m_Target;
+		/** 下次读取链接的时间 */
+		volatile long m_CheckTime;
+
+		Resolved(long epoch, String target, long checkTime) {
+			m_Epoch = epoch;
+			m_Target = target;
+			m_CheckTime = checkTime;
+		}
+	}
+}
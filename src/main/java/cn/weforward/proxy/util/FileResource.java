@@ -30,28 +30,133 @@ import cn.weforward.proxy.Resource;
 public class FileResource implements Resource {
 	/** 文件 */
 	protected File m_File;
-	/** 最后修改时间 */
-	protected String m_LastModified;
+	/** 元数据 */
+	protected volatile Metadata m_Metadata;
+	/** 是否位于不会再变的目录（如已解析的部署版本目录）下 */
+	protected boolean m_Immutable;
+	/** 是否需要实时检查元数据 */
+	protected volatile boolean m_Mutable;
 	/** 是否存在 */
-	protected boolean m_Exists;
+	protected volatile boolean m_Exists;
+	/** 所属的监听根目录，有效时信任已缓存的元数据 */
+	protected volatile FileWatcher.Root m_Watch;
+	/** 不存在时下次检查文件的时间 */
+	protected volatile long m_RecheckTime;
+	/** 近期是否被访问（CLOCK淘汰用） */
+	volatile boolean m_Referenced;
+	/** 是否已从资源组中淘汰 */
+	volatile boolean m_Detached;
+	/** 预压缩的gzip文件 */
+	protected FileResource m_Gzip;
+	/** 预压缩的brotli文件 */
+	protected FileResource m_Brotli;
 
 	public FileResource(String path) throws IOException {
 		this(new File(path));
 	}
 
 	public FileResource(File file) throws IOException {
+		this(file, false);
+	}
+
+	/**
+	 * 构造
+	 * 
+	 * @param file      文件
+	 * @param immutable 是否位于不会再变的目录下，是则不再检查软链接
+	 * @throws IOException IO异常
+	 */
+	public FileResource(File file, boolean immutable) throws IOException {
 		m_File = file;
+		m_Immutable = immutable;
+		m_Mutable = true;
 		// 软链接的文件是会变的，不是软链接的文件不会修改
 		if (file.exists()) {
 			m_Exists = true;
-			if (StringUtil.eq(file.getAbsolutePath(), file.getCanonicalPath())) {
-				m_LastModified = parseModified();
+			m_Metadata = new Metadata(file.lastModified(), file.length());
+			m_Mutable = !immutable && !StringUtil.eq(file.getAbsolutePath(), file.getCanonicalPath());
+		}
+		if (!m_Exists) {
+			m_RecheckTime = System.currentTimeMillis() + FileResources.getNegativeTtl();
+		}
+		m_Watch = FileWatcher.lookup(file);
+	}
+
+	/* 是否由文件监听保证元数据是最新的，已淘汰的资源不再收到刷新 */
+	private boolean isWatched() {
+		FileWatcher.Root w = m_Watch;
+		return null != w && w.isValid() && !m_Detached;
+	}
+
+	/**
+	 * 是否已从资源组中淘汰，淘汰后应重新通过{@link FileResources#get(String)}获取
+	 * 
+	 * @return 是否已淘汰
+	 */
+	public boolean isDetached() {
+		return m_Detached;
+	}
+
+	/**
+	 * 元数据（含是否存在）是否已在内存中，读取时不会访问磁盘
+	 * 
+	 * @return 是否在内存中
+	 */
+	public boolean isMetadataCached() {
+		if (m_Detached) {
+			return false;
+		}
+		if (m_Exists) {
+			return null != m_Metadata && (!m_Mutable || isWatched());
+		}
+		return isWatched() || System.currentTimeMillis() < m_RecheckTime;
+	}
+
+	/**
+	 * 预压缩文件是否已查找过且元数据在内存中，此时{@link #getEncoded(String)}不会访问磁盘
+	 * 
+	 * @return 是否在内存中
+	 */
+	public boolean isEncodedCached() {
+		FileResource gzip = m_Gzip;
+		FileResource br = m_Brotli;
+		return null != gzip && gzip.isMetadataCached() && null != br && br.isMetadataCached();
+	}
+
+	/**
+	 * 重新读取元数据（由文件监听在有变化时调用）
+	 */
+	void refresh() {
+		File file = m_File;
+		boolean exists = file.exists();
+		if (exists) {
+			m_Metadata = new Metadata(file.lastModified(), file.length());
+			boolean mutable = false;
+			if (!m_Immutable) {
+				try {
+					mutable = !StringUtil.eq(file.getAbsolutePath(), file.getCanonicalPath());
+				} catch (IOException e) {
+					mutable = true;
+				}
 			}
+			m_Mutable = mutable;
 		}
+		m_Exists = exists;
+		m_RecheckTime = 0;
+		m_Watch = FileWatcher.lookup(file);
 	}
 
-	private String parseModified() {
-		return TimeUtil.formatGMT(new Date(m_File.lastModified()));
+	/* 获取元数据，会变的文件按修改时间检查是否需要刷新 */
+	private Metadata getMetadata() {
+		Metadata m = m_Metadata;
+		if (null == m || (m_Mutable && !isWatched())) {
+			long time = m_File.lastModified();
+			if (null == m || m.m_Time != time) {
+				m = new Metadata(time, m_File.length());
+				m_Metadata = m;
+			}
+		}
+		return m;
 	}
 
 	private File getFile() {
@@ -68,16 +173,60 @@ public class FileResource implements Resource {
 		if (m_Exists) {
 			return true;
 		}
+		if (isWatched()) {
+			return false;// 创建时会收到通知
+		}
+		long now = System.currentTimeMillis();
+		if (now < m_RecheckTime) {
+			return false;
+		}
 		if (getFile().exists()) {
 			m_Exists = true;
 			return true;
 		}
+		m_RecheckTime = now + FileResources.getNegativeTtl();
 		return false;
 	}
 
 	@Override
 	public String getLastModified() {
-		return null == m_LastModified ? parseModified() : m_LastModified;
+		return getMetadata().m_LastModified;
+	}
+
+	@Override
+	public long getLastModifiedTime() {
+		return getMetadata().m_Time;
+	}
+
+	@Override
+	public long getLength() {
+		return getMetadata().m_Length;
+	}
+
+	@Override
+	public String getETag() {
+		return getMetadata().m_ETag;
+	}
+
+	@Override
+	public Resource getEncoded(String encoding) throws IOException {
+		FileResource r;
+		if (ENCODING_GZIP.equals(encoding)) {
+			r = m_Gzip;
+			if (null == r || r.isDetached()) {
+				r = FileResources.get(m_File.getPath() + ".gz", m_Immutable);
+				m_Gzip = r;
+			}
+		} else if (ENCODING_BR.equals(encoding)) {
+			r = m_Brotli;
+			if (null == r || r.isDetached()) {
+				r = FileResources.get(m_File.getPath() + ".br", m_Immutable);
+				m_Brotli = r;
+			}
+		} else {
+			return null;
+		}
+		return r.exists() ? r : null;
 	}
 
 	@Override
@@ -86,6 +235,7 @@ public class FileResource implements Resource {
 			return new FileInputStream(m_File);
 		} catch (FileNotFoundException e) {
 			m_Exists = false;// 手动删除文件时会出现
+			m_RecheckTime = System.currentTimeMillis() + FileResources.getNegativeTtl();
 			throw e;
 		}
 	}
@@ -94,4 +244,28 @@ public class FileResource implements Resource {
 	public String toString() {
 		return m_File.toString();
 	}
+
+	/**
+	 * 文件元数据
+	 * 
+	 * @author daibo
+	 *
+	 */
+	static class Metadata {
+		/** 修改时间 */
+		final long m_Time;
+		/** 长度 */
+		final long m_Length;
+		/** 最后修改时间（GMT格式） */
+		final String m_LastModified;
+		/** 实体标签 */
+		final String m_ETag;
+
+		Metadata(long time, long length) {
+			m_Time = time;
+			m_Length = length;
+			m_LastModified = TimeUtil.formatGMT(new Date(time));
+			m_ETag = HttpConditional.toETag(length, time);
+		}
+	}
 }
@@ -12,18 +12,75 @@ package cn.weforward.proxy.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 文件资源组
+ * <p>
+ * 存在的与不存在的资源分开缓存，均有数量上限，超出时按CLOCK算法淘汰近期未被访问的资源；
+ * 不存在的资源在短时间（negativeTtl）内不再检查文件，避免扫描器的随机地址撑大缓存及重复检查。
  * 
  * @author daibo
  *
  */
 public class FileResources {
+	/** 默认的资源数上限 */
+	public static final int DEFAULT_CAPACITY = 65536;
+	/** 默认的不存在资源数上限 */
+	public static final int DEFAULT_NEGATIVE_CAPACITY = 8192;
+	/** 默认的不存在资源重新检查间隔（毫秒） */
+	public static final int DEFAULT_NEGATIVE_TTL = 5000;
 	/** 资源组 */
-	private static final Map<String, FileResource> RESOURCES = new ConcurrentHashMap<String, FileResource>();
+	private static final Table RESOURCES = new Table(DEFAULT_CAPACITY);
+	/** 不存在的资源 */
+	private static final Table MISSING = new Table(DEFAULT_NEGATIVE_CAPACITY);
+	/** 不存在资源的重新检查间隔 */
+	private static volatile int _NegativeTtl = DEFAULT_NEGATIVE_TTL;
+	/** 命中次数 */
+	private static final LongAdder HITS = new LongAdder();
+	/** 命中不存在资源的次数 */
+	private static final LongAdder NEGATIVE_HITS = new LongAdder();
+	/** 未命中次数 */
+	private static final LongAdder MISSES = new LongAdder();
+	/** 淘汰次数 */
+	private static final LongAdder EVICTIONS = new LongAdder();
+
+	/**
+	 * 设置资源数上限
+	 * 
+	 * @param capacity 上限
+	 */
+	public static void setCapacity(int capacity) {
+		RESOURCES.m_Capacity = Math.max(capacity, 1);
+		RESOURCES.evict();
+	}
+
+	/**
+	 * 设置不存在资源的缓存
+	 * 
+	 * @param capacity 上限
+	 * @param ttl      重新检查间隔（毫秒）
+	 */
+	public static void setNegativeCache(int capacity, int ttl) {
+		MISSING.m_Capacity = Math.max(capacity, 1);
+		_NegativeTtl = Math.max(ttl, 0);
+		MISSING.evict();
+	}
+
+	/**
+	 * 不存在资源的重新检查间隔
+	 * 
+	 * @return 间隔（毫秒）
+	 */
+	public static int getNegativeTtl() {
+		return _NegativeTtl;
+	}
 
 	/**
 	 * 获取资源
@@ -33,15 +90,246 @@ public class FileResources {
 	 * @throws IOException IO异常
 	 */
 	public static FileResource get(String path) throws IOException {
+		return get(path, false);
+	}
+
+	/**
+	 * 获取资源
+	 * 
+	 * @param path      路径
+	 * @param immutable 是否位于不会再变的目录（如已解析的部署版本目录）下，是则创建时不再检查软链接
+	 * @return 文件资源
+	 * @throws IOException IO异常
+	 */
+	public static FileResource get(String path, boolean immutable) throws IOException {
 		FileResource r = RESOURCES.get(path);
-		if (null == r) {
-			r = new FileResource(new File(path));
-			FileResource old = RESOURCES.putIfAbsent(path, r);
-			if (null != old) {
-				r = old;// 被人抢先了，用别人的吧
+		if (null != r) {
+			HITS.increment();
+			return r;
+		}
+		r = MISSING.get(path);
+		if (null != r) {
+			if (!r.exists()) {
+				NEGATIVE_HITS.increment();
+				return r;
+			}
+			// 文件已出现，转为存在的资源
+			if (MISSING.remove(path, r)) {
+				FileResource old = RESOURCES.put(path, r);
+				if (null != old) {
+					r.m_Detached = true;
+					return old;
+				}
 			}
+			HITS.increment();
+			return r;
+		}
+		MISSES.increment();
+		long generation = FileWatcher.getGeneration();
+		r = new FileResource(new File(path), immutable);
+		FileResource old = (r.m_Exists ? RESOURCES : MISSING).put(path, r);
+		if (null != old) {
+			r = old;// 被人抢先了，用别人的吧
+		} else if (generation != FileWatcher.getGeneration()) {
+			r.refresh();// 创建期间有文件变化，可能错过了刷新
 		}
 		return r;
 	}
 
+	/**
+	 * 刷新已缓存资源的元数据
+	 * 
+	 * @param path 路径
+	 * @param tree 是否包括路径下的所有资源
+	 */
+	public static void refresh(String path, boolean tree) {
+		RESOURCES.refresh(path, tree);
+		MISSING.refresh(path, tree);
+	}
+
+	/**
+	 * 路径是否在目录下（含自身）
+	 * 
+	 * @param path 路径
+	 * @param dir  目录
+	 * @return 是否在目录下
+	 */
+	static boolean isUnder(String path, String dir) {
+		if (!path.startsWith(dir)) {
+			return false;
+		}
+		int len = dir.length();
+		return path.length() == len || path.charAt(len) == File.separatorChar
+				|| (len > 0 && dir.charAt(len - 1) == File.separatorChar);
+	}
+
+	/**
+	 * 缓存的资源数
+	 * 
+	 * @return 资源数
+	 */
+	public static int getSize() {
+		return RESOURCES.m_Map.size();
+	}
+
+	/**
+	 * 缓存的不存在资源数
+	 * 
+	 * @return 资源数
+	 */
+	public static int getNegativeSize() {
+		return MISSING.m_Map.size();
+	}
+
+	/**
+	 * 命中次数
+	 * 
+	 * @return 次数
+	 */
+	public static long getHits() {
+		return HITS.sum();
+	}
+
+	/**
+	 * 命中不存在资源的次数
+	 * 
+	 * @return 次数
+	 */
+	public static long getNegativeHits() {
+		return NEGATIVE_HITS.sum();
+	}
+
+	/**
+	 * 未命中次数
+	 * 
+	 * @return 次数
+	 */
+	public static long getMisses() {
+		return MISSES.sum();
+	}
+
+	/**
+	 * 淘汰次数
+	 * 
+	 * @return 次数
+	 */
+	public static long getEvictions() {
+		return EVICTIONS.sum();
+	}
+
+	/**
+	 * 统计信息
+	 * 
+	 * @return 统计信息
+	 */
+	public static String getStat() {
+		return "size=" + getSize() + ";negativeSize=" + getNegativeSize() + ";hits=" + getHits() + ";negativeHits="
+				+ getNegativeHits() + ";misses=" + getMisses() + ";evictions=" + getEvictions();
+	}
+
+	/**
+	 * 有上限的资源表，按CLOCK算法淘汰
+	 * 
+	 * @author daibo
+	 *
+	 */
+	static class Table {
+		/** 资源 */
+		final Map<String, FileResource> m_Map = new ConcurrentHashMap<>();
+		/** 按路径排序的键，刷新目录时只遍历该目录下的 */
+		final NavigableSet<String> m_Keys = new ConcurrentSkipListSet<>();
+		/** 淘汰锁 */
+		final ReentrantLock m_Lock = new ReentrantLock();
+		/** 上限 */
+		volatile int m_Capacity;
+		/** 时钟指针 */
+		Iterator<Map.Entry<String, FileResource>> m_Hand;
+
+		Table(int capacity) {
+			m_Capacity = capacity;
+		}
+
+		FileResource get(String path) {
+			FileResource r = m_Map.get(path);
+			if (null != r && !r.m_Referenced) {
+				r.m_Referenced = true;// 已置位时不再写，减少缓存行争用
+			}
+			return r;
+		}
+
+		/* 放入资源，已存在时返回原有的 */
+		FileResource put(String path, FileResource r) {
+			FileResource old = m_Map.putIfAbsent(path, r);
+			if (null == old) {
+				m_Keys.add(path);
+				if (m_Map.size() > m_Capacity) {
+					evict();
+				}
+			}
+			return old;
+		}
+
+		/* 移除资源 */
+		boolean remove(String path, FileResource r) {
+			if (!m_Map.remove(path, r)) {
+				return false;
+			}
+			m_Keys.remove(path);
+			if (m_Map.containsKey(path)) {
+				// 移除期间又放入了
+				m_Keys.add(path);
+			}
+			return true;
+		}
+
+		/* 淘汰超出上限的资源，已有线程在淘汰时直接返回 */
+		void evict() {
+			if (!m_Lock.tryLock()) {
+				return;
+			}
+			try {
+				// 转两圈必定能清完访问标记，并发写入时也不会无限循环
+				long limit = 2L * m_Map.size() + 1;
+				while (m_Map.size() > m_Capacity && limit-- > 0) {
+					if (null == m_Hand || !m_Hand.hasNext()) {
+						m_Hand = m_Map.entrySet().iterator();
+						if (!m_Hand.hasNext()) {
+							break;
+						}
+					}
+					Map.Entry<String, FileResource> e = m_Hand.next();
+					FileResource r = e.getValue();
+					if (r.m_Referenced) {
+						r.m_Referenced = false;
+						continue;
+					}
+					if (remove(e.getKey(), r)) {
+						r.m_Detached = true;
+						EVICTIONS.increment();
+					}
+				}
+			} finally {
+				m_Lock.unlock();
+			}
+		}
+
+		void refresh(String path, boolean tree) {
+			if (!tree) {
+				FileResource r = m_Map.get(path);
+				if (null != r) {
+					r.refresh();
+				}
+				return;
+			}
+			// 目录下的路径都以目录开头，在有序的键中是连续的一段
+			for (String key : m_Keys.subSet(path, true, path + Character.MAX_VALUE, false)) {
+				if (isUnder(key, path)) {
+					FileResource r = m_Map.get(key);
+					if (null != r) {
+						r.refresh();
+					}
+				}
+			}
+		}
+	}
 }
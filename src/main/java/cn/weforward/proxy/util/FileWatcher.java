@@ -0,0 +1,379 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.common.Destroyable;
+import cn.weforward.common.sys.Shutdown;
+
+/**
+ * 文件监听
+ * <p>
+ * 基于WatchService（Linux下为inotify）监听部署的根目录，目录下的文件资源在有变化时才刷新元数据，
+ * 其余时候直接信任已缓存的元数据，请求时不再需要stat/readlink等系统调用。
+ * <p>
+ * 监听时会跟随目录的软链接（如latest），软链接切换时重新注册新的目录树；指向根目录外的文件软链接不受信任，仍按原方式检查。
+ * 注册失败（如超出inotify的监听数上限）或事件溢出时会退回到原来的检查方式或全量刷新，保证不会读到过期的元数据。
+ * 
+ * @author daibo
+ *
+ */
+public class FileWatcher implements Runnable, Destroyable {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(FileWatcher.class);
+	/** 合并事件的等待时间（毫秒） */
+	private static final long BATCH_DELAY = 50;
+	/** 实例 */
+	private static volatile FileWatcher _Instance;
+	/** 已监听的根目录 */
+	private static final List<Root> ROOTS = new CopyOnWriteArrayList<>();
+	/** 刷新的代数，每批刷新前递增 */
+	private static volatile long _Generation;
+
+	/** 监听服务 */
+	protected final WatchService m_Service;
+	/** 监听键对应的目录（同一目录可能经软链接以多个路径注册） */
+	protected final Map<WatchKey, List<Path>> m_Aliases = new HashMap<>();
+	/** 监听线程 */
+	protected final Thread m_Thread;
+
+	private FileWatcher() throws IOException {
+		m_Service = FileSystems.getDefault().newWatchService();
+		m_Thread = new Thread(this, "file-watcher");
+		m_Thread.setDaemon(true);
+		m_Thread.start();
+		Shutdown.register(this);
+	}
+
+	/* 获取实例，首次调用时启动监听线程 */
+	private static FileWatcher getInstance() throws IOException {
+		FileWatcher w = _Instance;
+		if (null == w) {
+			synchronized (FileWatcher.class) {
+				w = _Instance;
+				if (null == w) {
+					w = new FileWatcher();
+					_Instance = w;
+				}
+			}
+		}
+		return w;
+	}
+
+	/**
+	 * 监听目录（含子目录）
+	 * 
+	 * @param dir 目录
+	 * @return 是否监听成功
+	 */
+	public static boolean watch(String dir) {
+		Path path = Paths.get(dir);
+		if (!Files.isDirectory(path)) {
+			_Logger.warn("忽略不存在的监听目录:" + dir);
+			return false;
+		}
+		String normalized = new File(dir).getPath();
+		for (Root r : ROOTS) {
+			if (r.contains(normalized)) {
+				return true;
+			}
+		}
+		try {
+			FileWatcher w = getInstance();
+			synchronized (w) {
+				w.registerTree(path);
+			}
+		} catch (IOException e) {
+			_Logger.warn("监听目录失败:" + dir, e);
+			return false;
+		}
+		ROOTS.add(new Root(normalized));
+		// 监听前已创建的资源也纳入信任
+		FileResources.refresh(normalized, true);
+		_Logger.info("监听目录:" + dir);
+		return true;
+	}
+
+	/**
+	 * 查找文件所属的监听根目录
+	 * 
+	 * @param file 文件
+	 * @return 根目录，文件不在监听范围内或自身是软链接时返回null
+	 */
+	public static Root lookup(File file) {
+		if (ROOTS.isEmpty()) {
+			return null;
+		}
+		String path = file.getPath();
+		for (Root r : ROOTS) {
+			if (r.contains(path) && r.isValid()) {
+				return Files.isSymbolicLink(file.toPath()) ? null : r;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 刷新的代数，用于发现创建资源期间发生的变化
+	 * 
+	 * @return 代数
+	 */
+	public static long getGeneration() {
+		return _Generation;
+	}
+
+	/* 注册目录树（跟随软链接），跳过内容存储、清单等隐藏目录 */
+	private void registerTree(final Path start) throws IOException {
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+						if (!dir.equals(start) && isHidden(dir)) {
+							return FileVisitResult.SKIP_SUBTREE;
+						}
+						register(dir);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+						// 循环的软链接或注册期间被删除的文件
+						return FileVisitResult.CONTINUE;
+					}
+				});
+	}
+
+	/* 注册目录 */
+	private void register(Path dir) throws IOException {
+		WatchKey key = dir.register(m_Service, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		List<Path> dirs = m_Aliases.get(key);
+		if (null == dirs) {
+			dirs = new ArrayList<>(1);
+			m_Aliases.put(key, dirs);
+		}
+		if (!dirs.contains(dir)) {
+			dirs.add(dir);
+		}
+	}
+
+	/* 注销路径下（含自身）的目录 */
+	private void unregisterTree(Path path) {
+		Iterator<Map.Entry<WatchKey, List<Path>>> it = m_Aliases.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<WatchKey, List<Path>> e = it.next();
+			List<Path> dirs = e.getValue();
+			for (int i = dirs.size() - 1; i >= 0; i--) {
+				if (dirs.get(i).startsWith(path)) {
+					dirs.remove(i);
+				}
+			}
+			if (dirs.isEmpty()) {
+				e.getKey().cancel();
+				it.remove();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		Set<Path> modified = new HashSet<>();
+		Set<Path> replaced = new HashSet<>();
+		try {
+			while (true) {
+				WatchKey key = m_Service.take();
+				boolean overflow = false;
+				// 短时间内的事件合并成一批处理
+				do {
+					overflow |= collect(key, modified, replaced);
+					key = m_Service.poll(BATCH_DELAY, TimeUnit.MILLISECONDS);
+				} while (null != key);
+				try {
+					apply(modified, replaced, overflow);
+				} catch (RuntimeException e) {
+					_Logger.error("刷新文件资源异常", e);
+				}
+				modified.clear();
+				replaced.clear();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			_Logger.info("结束文件监听");
+		}
+	}
+
+	/* 收集事件，修改的只刷新自身，创建或删除的刷新整个路径（可能是目录被替换） */
+	private synchronized boolean collect(WatchKey key, Set<Path> modified, Set<Path> replaced) {
+		boolean overflow = false;
+		List<Path> dirs = m_Aliases.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			WatchEvent.Kind<?> kind = event.kind();
+			if (StandardWatchEventKinds.OVERFLOW == kind) {
+				overflow = true;
+				continue;
+			}
+			if (null == dirs) {
+				continue;
+			}
+			Path name = (Path) event.context();
+			for (Path dir : dirs) {
+				Path path = dir.resolve(name);
+				if (StandardWatchEventKinds.ENTRY_MODIFY == kind) {
+					modified.add(path);
+				} else {
+					replaced.add(path);
+				}
+			}
+		}
+		if (!key.reset()) {
+			m_Aliases.remove(key);
+		}
+		return overflow;
+	}
+
+	/* 处理一批变化 */
+	private void apply(Set<Path> modified, Set<Path> replaced, boolean overflow) {
+		_Generation++;
+		if (overflow) {
+			_Logger.warn("文件监听事件溢出，全量刷新");
+			for (Root r : ROOTS) {
+				try {
+					synchronized (this) {
+						registerTree(Paths.get(r.m_Path));
+					}
+				} catch (IOException e) {
+					degrade(e);
+				}
+				FileResources.refresh(r.m_Path, true);
+			}
+			return;
+		}
+		for (Path path : replaced) {
+			if (isCovered(path, replaced)) {
+				continue;// 上级路径已整体刷新
+			}
+			try {
+				synchronized (this) {
+					unregisterTree(path);
+					if (!isHidden(path) && Files.isDirectory(path)) {
+						registerTree(path);
+					}
+				}
+			} catch (IOException e) {
+				degrade(e);
+			}
+			// 软链接被重建时切换部署纪元
+			DeployEpoch.invalidate(path.toString());
+			FileResources.refresh(path.toString(), true);
+		}
+		for (Path path : modified) {
+			if (!replaced.contains(path) && !isCovered(path, replaced)) {
+				FileResources.refresh(path.toString(), false);
+			}
+		}
+	}
+
+	/* 是否为隐藏的路径 */
+	private static boolean isHidden(Path path) {
+		Path name = path.getFileName();
+		return null != name && name.toString().startsWith(".");
+	}
+
+	/* 是否已被其它路径（上级）覆盖 */
+	private static boolean isCovered(Path path, Set<Path> paths) {
+		for (Path p = path.getParent(); null != p; p = p.getParent()) {
+			if (paths.contains(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* 无法继续可靠监听，退回到原来的检查方式 */
+	private void degrade(IOException e) {
+		_Logger.error("注册文件监听失败，退回到按请求检查", e);
+		for (Root r : ROOTS) {
+			r.m_Valid = false;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		try {
+			m_Service.close();
+		} catch (IOException e) {
+			_Logger.warn("关闭文件监听异常", e);
+		}
+	}
+
+	/**
+	 * 监听的根目录
+	 * 
+	 * @author daibo
+	 *
+	 */
+	public static class Root {
+		/** 路径 */
+		final String m_Path;
+		/** 是否仍然有效 */
+		volatile boolean m_Valid = true;
+
+		Root(String path) {
+			m_Path = path;
+		}
+
+		/**
+		 * 是否有效（有效时可信任已缓存的元数据）
+		 * 
+		 * @return 是否有效
+		 */
+		public boolean isValid() {
+			return m_Valid;
+		}
+
+		/* 路径是否在根目录下（含自身） */
+		boolean contains(String path) {
+			return FileResources.isUnder(path, m_Path);
+		}
+
+		@Override
+		public String toString() {
+			return m_Path;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+/**
+ * 访问频率估算（Count-Min Sketch，4位计数器），用于TinyLFU准入判断
+ * <p>
+ * 计数达到采样数后所有计数器减半，使频率随时间衰减。非线程安全，并发下允许少量计数丢失
+ * 
+ * @author daibo
+ *
+ */
+class FrequencySketch {
+	/** 哈希种子 */
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+			0xcbf29ce484222325L };
+	/** 每个long保存16个4位计数器 */
+	private final long[] m_Table;
+	/** 下标掩码 */
+	private final int m_Mask;
+	/** 采样数 */
+	private final int m_SampleSize;
+	/** 当前计数 */
+	private int m_Size;
+
+	/**
+	 * 构造
+	 * 
+	 * @param capacity 预计的条目数
+	 */
+	FrequencySketch(int capacity) {
+		int n = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		m_Table = new long[n];
+		m_Mask = n - 1;
+		m_SampleSize = 10 * n;
+	}
+
+	/**
+	 * 估算频率
+	 * 
+	 * @param hashCode 哈希值
+	 * @return 频率（0~15）
+	 */
+	int frequency(int hashCode) {
+		int hash = spread(hashCode);
+		int start = (hash & 3) << 2;
+		int frequency = 15;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int count = (int) ((m_Table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * 记录一次访问
+	 * 
+	 * @param hashCode 哈希值
+	 */
+	void increment(int hashCode) {
+		int hash = spread(hashCode);
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if (added && ++m_Size >= m_SampleSize) {
+			reset();
+		}
+	}
+
+	private boolean incrementAt(int i, int j) {
+		int offset = j << 2;
+		long mask = (0xfL << offset);
+		if ((m_Table[i] & mask) != mask) {
+			m_Table[i] += (1L << offset);
+			return true;
+		}
+		return false;
+	}
+
+	/* 衰减：所有计数器减半 */
+	private void reset() {
+		for (int i = 0; i < m_Table.length; i++) {
+			m_Table[i] = (m_Table[i] >>> 1) & 0x7777777777777777L;
+		}
+		m_Size = m_Size >>> 1;
+	}
+
+	private int indexOf(int item, int i) {
+		long hash = (item + SEEDS[i]) * SEEDS[i];
+		hash += (hash >>> 32);
+		return ((int) hash) & m_Mask;
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.proxy.Resource;
+
+/**
+ * HTTP条件请求（If-None-Match/If-Modified-Since/If-Range）
+ * 
+ * @author daibo
+ *
+ */
+public class HttpConditional {
+	/** 可接受的日期格式：RFC 1123、RFC 850、asctime */
+	private static final String[] DATE_PATTERNS = { "EEE, dd MMM yyyy HH:mm:ss zzz", "EEEE, dd-MMM-yy HH:mm:ss zzz",
+			"EEE MMM d HH:mm:ss yyyy" };
+	/** 日期解析器 */
+	private static final ThreadLocal<SimpleDateFormat[]> DATE_FORMATS = new ThreadLocal<SimpleDateFormat[]>() {
+		@Override
+		protected SimpleDateFormat[] initialValue() {
+			SimpleDateFormat[] formats = new SimpleDateFormat[DATE_PATTERNS.length];
+			for (int i = 0; i < formats.length; i++) {
+				formats[i] = new SimpleDateFormat(DATE_PATTERNS[i], Locale.US);
+				formats[i].setTimeZone(TimeZone.getTimeZone("GMT"));
+			}
+			return formats;
+		}
+	};
+
+	/**
+	 * 生成强校验的ETag
+	 * 
+	 * @param length 长度
+	 * @param stamp  时间戳或内容摘要
+	 * @return 带引号的ETag
+	 */
+	public static String toETag(long length, long stamp) {
+		return "\"" + Long.toHexString(length) + '-' + Long.toHexString(stamp) + '"';
+	}
+
+	/**
+	 * 是否可以响应304
+	 * <p>
+	 * 有If-None-Match时只按ETag判断（弱比较），否则按If-Modified-Since的时间（秒）判断
+	 * 
+	 * @param ifNoneMatch     If-None-Match头
+	 * @param ifModifiedSince If-Modified-Since头
+	 * @param resource        资源
+	 * @return 是否未修改
+	 */
+	public static boolean isNotModified(String ifNoneMatch, String ifModifiedSince, Resource resource) {
+		if (!StringUtil.isEmpty(ifNoneMatch)) {
+			return matchAny(ifNoneMatch, resource.getETag(), true);
+		}
+		if (StringUtil.isEmpty(ifModifiedSince)) {
+			return false;
+		}
+		String lastModified = resource.getLastModified();
+		if (ifModifiedSince.equals(lastModified)) {
+			// 绝大多数客户端原样回传Last-Modified
+			return true;
+		}
+		long since = parseDate(ifModifiedSince);
+		if (since < 0) {
+			return false;
+		}
+		return resource.getLastModifiedTime() / 1000 <= since / 1000;
+	}
+
+	/**
+	 * If-Range是否匹配（ETag强比较，日期须完全一致）
+	 * 
+	 * @param ifRange  If-Range头
+	 * @param resource 资源
+	 * @return 是否匹配
+	 */
+	public static boolean isRangeMatch(String ifRange, Resource resource) {
+		if (StringUtil.isEmpty(ifRange)) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return matchAny(ifRange, resource.getETag(), false);
+		}
+		return ifRange.equals(resource.getLastModified());
+	}
+
+	/**
+	 * 逗号分隔的ETag列表中是否有与指定ETag匹配的
+	 * 
+	 * @param list ETag列表（可为*）
+	 * @param etag 资源的ETag
+	 * @param weak 是否弱比较（忽略W/前缀）
+	 * @return 是否匹配
+	 */
+	public static boolean matchAny(String list, String etag, boolean weak) {
+		if (null == etag) {
+			return false;
+		}
+		int length = list.length();
+		int start = 0;
+		while (start < length) {
+			while (start < length && (list.charAt(start) == ' ' || list.charAt(start) == ',')) {
+				start++;
+			}
+			if (start >= length) {
+				break;
+			}
+			if (list.charAt(start) == '*') {
+				return true;
+			}
+			boolean isWeak = false;
+			if (list.startsWith("W/", start)) {
+				isWeak = true;
+				start += 2;
+			}
+			int end;
+			if (start < length && list.charAt(start) == '"') {
+				end = list.indexOf('"', start + 1);
+				end = (end < 0) ? length : end + 1;
+			} else {
+				end = list.indexOf(',', start);
+				if (end < 0) {
+					end = length;
+				}
+			}
+			if ((weak || !isWeak) && end - start == etag.length() && list.regionMatches(start, etag, 0, end - start)) {
+				return true;
+			}
+			start = end;
+		}
+		return false;
+	}
+
+	/**
+	 * 解析HTTP日期
+	 * 
+	 * @param value 日期
+	 * @return 毫秒数，无法解析时返回-1
+	 */
+	public static long parseDate(String value) {
+		for (SimpleDateFormat format : DATE_FORMATS.get()) {
+			try {
+				return format.parse(value).getTime();
+			} catch (ParseException e) {
+				// 尝试下一种格式
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HTTP字节范围（Range: bytes=...）
+ * 
+ * @author daibo
+ *
+ */
+public class HttpRange {
+	/** 单个请求最多接受的范围数，超出时忽略Range按完整内容返回 */
+	public static final int MAX_RANGES = 16;
+	/** 单位前缀 */
+	private static final String BYTES_UNIT = "bytes=";
+
+	/** 开始位置（包含） */
+	protected final long m_Start;
+	/** 结束位置（包含） */
+	protected final long m_End;
+
+	public HttpRange(long start, long end) {
+		m_Start = start;
+		m_End = end;
+	}
+
+	/** 开始位置（包含） */
+	public long getStart() {
+		return m_Start;
+	}
+
+	/** 结束位置（包含） */
+	public long getEnd() {
+		return m_End;
+	}
+
+	/** 字节数 */
+	public long getLength() {
+		return m_End - m_Start + 1;
+	}
+
+	/**
+	 * Content-Range头的值
+	 * 
+	 * @param total 总长度
+	 * @return 值
+	 */
+	public String toContentRange(long total) {
+		return "bytes " + m_Start + '-' + m_End + '/' + total;
+	}
+
+	/**
+	 * 解析Range头
+	 * 
+	 * @param header Range头
+	 * @param length 内容总长度
+	 * @return 可满足的范围列表；无可满足的范围时返回空列表（应响应416）；格式不支持时返回null（应忽略Range）
+	 */
+	public static List<HttpRange> parse(String header, long length) {
+		if (null == header || !header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+			return null;
+		}
+		List<HttpRange> ranges = null;
+		int start = BYTES_UNIT.length();
+		int count = 0;
+		while (start < header.length()) {
+			int end = header.indexOf(',', start);
+			if (end < 0) {
+				end = header.length();
+			}
+			String spec = header.substring(start, end).trim();
+			start = end + 1;
+			if (spec.isEmpty()) {
+				continue;
+			}
+			if (++count > MAX_RANGES) {
+				return null;
+			}
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			long first;
+			long last;
+			try {
+				if (dash == 0) {
+					// 最后n个字节
+					long suffix = Long.parseLong(spec.substring(1));
+					if (suffix <= 0) {
+						continue;
+					}
+					first = Math.max(0, length - suffix);
+					last = length - 1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash));
+					if (dash == spec.length() - 1) {
+						last = length - 1;
+					} else {
+						last = Long.parseLong(spec.substring(dash + 1));
+						if (last < first) {
+							return null;
+						}
+						last = Math.min(last, length - 1);
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (first < 0) {
+				return null;
+			}
+			if (first >= length || first > last) {
+				// 不可满足
+				continue;
+			}
+			if (null == ranges) {
+				ranges = new ArrayList<>(2);
+			}
+			ranges.add(new HttpRange(first, last));
+		}
+		if (0 == count) {
+			return null;
+		}
+		return null == ranges ? Collections.<HttpRange>emptyList() : ranges;
+	}
+
+	@Override
+	public String toString() {
+		return m_Start + "-" + m_End;
+	}
+}
@@ -42,6 +42,8 @@ public class JarResource implements Resource, Destroyable {
 	protected String m_Name;
 	/** 修改时间 */
 	protected String m_LastModified;
+	/** 实体标签 */
+	protected String m_ETag;
 
 	public JarResource(JarFile jarFile, String entry) throws IOException {
 		m_File = jarFile;
@@ -49,6 +51,9 @@ public class JarResource implements Resource, Destroyable {
 		m_Name = entry.substring(index);
 		m_JarEntry = m_File.getJarEntry(entry);
 		m_LastModified = parseModified();
+		if (null != m_JarEntry) {
+			m_ETag = HttpConditional.toETag(m_JarEntry.getSize(), m_JarEntry.getCrc());
+		}
 		Shutdown.register(this);
 	}
 
@@ -71,6 +76,26 @@ public class JarResource implements Resource, Destroyable {
 		return m_LastModified;
 	}
 
+	@Override
+	public long getLastModifiedTime() {
+		return null == m_JarEntry ? 0 : m_JarEntry.getLastModifiedTime().toMillis();
+	}
+
+	@Override
+	public String getETag() {
+		return m_ETag;
+	}
+
+	@Override
+	public long getLength() {
+		return null == m_JarEntry ? -1 : m_JarEntry.getSize();
+	}
+
+	@Override
+	public Resource getEncoded(String encoding) {
+		return null;
+	}
+
 	@Override
 	public InputStream getStream() throws IOException {
 		return m_File.getInputStream(m_JarEntry);
@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.proxy.Resource;
+
+/**
+ * 按字节预算限制的热点资源缓存
+ * <p>
+ * 文件内容保存在堆外缓冲区，命中时直接从缓冲区输出而不再访问文件系统。
+ * 新条目需要腾出空间时按TinyLFU准入（候选者的访问频率须高于被淘汰者），淘汰按LRU顺序。
+ * <p>
+ * 注：堆外内存受-XX:MaxDirectMemorySize限制，预算需小于该值
+ * 
+ * @author daibo
+ *
+ */
+public class ResourceCache {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(ResourceCache.class);
+	/** 估算条目数时使用的平均文件大小 */
+	private static final int AVERAGE_SIZE = 8 * 1024;
+
+	/** 容量（字节） */
+	protected final long m_Capacity;
+	/** 可缓存的最大文件（字节） */
+	protected final int m_MaxFileSize;
+	/** 条目 */
+	protected final Map<Resource, CachedResource> m_Entries;
+	/** LRU顺序，由m_Lock保护 */
+	protected final LinkedHashMap<Resource, CachedResource> m_Lru;
+	/** 锁 */
+	protected final ReentrantLock m_Lock;
+	/** 访问频率 */
+	protected final FrequencySketch m_Sketch;
+	/** 已使用的字节数，由m_Lock保护 */
+	protected long m_Weight;
+	/** 命中数 */
+	protected final AtomicLong m_Hits = new AtomicLong();
+	/** 未命中数 */
+	protected final AtomicLong m_Misses = new AtomicLong();
+	/** 淘汰数 */
+	protected final AtomicLong m_Evictions = new AtomicLong();
+
+	/**
+	 * 构造
+	 * 
+	 * @param capacity    容量（字节）
+	 * @param maxFileSize 可缓存的最大文件（字节）
+	 */
+	public ResourceCache(long capacity, int maxFileSize) {
+		m_Capacity = capacity;
+		m_MaxFileSize = maxFileSize;
+		m_Entries = new ConcurrentHashMap<>();
+		m_Lru = new LinkedHashMap<>(16, 0.75f, true);
+		m_Lock = new ReentrantLock();
+		m_Sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, Math.max(capacity / AVERAGE_SIZE, 16)));
+	}
+
+	/**
+	 * 获取资源，可缓存的资源返回缓存版本，否则返回原资源
+	 * 
+	 * @param source 原资源
+	 * @return 资源
+	 * @throws IOException IO异常
+	 */
+	public Resource get(Resource source) throws IOException {
+		if (source instanceof CachedResource || source instanceof StringResource) {
+			// 本来就在内存
+			return source;
+		}
+		int hash = System.identityHashCode(source);
+		m_Sketch.increment(hash);
+		CachedResource cached = m_Entries.get(source);
+		if (null != cached) {
+			if (cached.isValid(source)) {
+				m_Hits.incrementAndGet();
+				touch(source);
+				return cached;
+			}
+			remove(source);
+		}
+		m_Misses.incrementAndGet();
+		long length = source.getLength();
+		if (length < 0 || length > m_MaxFileSize || length > m_Capacity) {
+			return source;
+		}
+		if (!canAdmit(hash, length)) {
+			return source;
+		}
+		cached = load(source, (int) length);
+		if (null == cached) {
+			return source;
+		}
+		put(source, hash, cached);
+		return cached;
+	}
+
+	/**
+	 * 只在已缓存时获取，不加载
+	 * 
+	 * @param source 原资源
+	 * @return 缓存的资源，未缓存时返回null
+	 */
+	public Resource peek(Resource source) {
+		if (source instanceof CachedResource || source instanceof StringResource) {
+			return source;
+		}
+		CachedResource cached = m_Entries.get(source);
+		if (null == cached || !cached.isValid(source)) {
+			return null;
+		}
+		m_Sketch.increment(System.identityHashCode(source));
+		m_Hits.incrementAndGet();
+		touch(source);
+		return cached;
+	}
+
+	/**
+	 * 移除缓存
+	 * 
+	 * @param source 原资源
+	 */
+	public void remove(Resource source) {
+		m_Lock.lock();
+		try {
+			CachedResource old = m_Lru.remove(source);
+			if (null != old) {
+				m_Entries.remove(source);
+				m_Weight -= old.getLength();
+			}
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/**
+	 * 清空缓存
+	 */
+	public void clear() {
+		m_Lock.lock();
+		try {
+			m_Lru.clear();
+			m_Entries.clear();
+			m_Weight = 0;
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/** 命中数 */
+	public long getHits() {
+		return m_Hits.get();
+	}
+
+	/** 未命中数 */
+	public long getMisses() {
+		return m_Misses.get();
+	}
+
+	/** 淘汰数 */
+	public long getEvictions() {
+		return m_Evictions.get();
+	}
+
+	/** 已使用的字节数 */
+	public long getWeight() {
+		return m_Weight;
+	}
+
+	/* 调整LRU顺序，锁被占用时跳过（近似LRU） */
+	private void touch(Resource source) {
+		if (m_Lock.tryLock()) {
+			try {
+				m_Lru.get(source);
+			} finally {
+				m_Lock.unlock();
+			}
+		}
+	}
+
+	/* 是否可以准入（不实际淘汰） */
+	private boolean canAdmit(int hash, long length) {
+		m_Lock.lock();
+		try {
+			return evict(hash, length, false);
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/* 放入缓存 */
+	private void put(Resource source, int hash, CachedResource cached) {
+		m_Lock.lock();
+		try {
+			CachedResource old = m_Lru.remove(source);
+			if (null != old) {
+				m_Weight -= old.getLength();
+			}
+			if (!evict(hash, cached.getLength(), true)) {
+				m_Entries.remove(source);
+				return;
+			}
+			m_Lru.put(source, cached);
+			m_Entries.put(source, cached);
+			m_Weight += cached.getLength();
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/* 按LRU顺序腾出空间，被淘汰者频率不低于候选者时拒绝准入，须持有锁 */
+	private boolean evict(int hash, long length, boolean apply) {
+		long need = m_Weight + length - m_Capacity;
+		if (need <= 0) {
+			return true;
+		}
+		int frequency = m_Sketch.frequency(hash);
+		long free = 0;
+		int count = 0;
+		for (Map.Entry<Resource, CachedResource> e : m_Lru.entrySet()) {
+			if (m_Sketch.frequency(System.identityHashCode(e.getKey())) >= frequency) {
+				return false;
+			}
+			free += e.getValue().getLength();
+			count++;
+			if (free >= need) {
+				break;
+			}
+		}
+		if (free < need) {
+			return false;
+		}
+		if (apply) {
+			Iterator<Map.Entry<Resource, CachedResource>> it = m_Lru.entrySet().iterator();
+			for (int i = 0; i < count; i++) {
+				Map.Entry<Resource, CachedResource> e = it.next();
+				it.remove();
+				m_Entries.remove(e.getKey());
+				m_Weight -= e.getValue().getLength();
+				m_Evictions.incrementAndGet();
+			}
+		}
+		return true;
+	}
+
+	/* 读取内容到堆外缓冲区 */
+	private CachedResource load(Resource source, int length) throws IOException {
+		String lastModified = source.getLastModified();
+		long time = source.getLastModifiedTime();
+		String etag = source.getETag();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+		try (InputStream in = source.getStream()) {
+			if (in instanceof FileInputStream) {
+				FileChannel channel = ((FileInputStream) in).getChannel();
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				}
+			} else {
+				byte[] bs = new byte[Math.min(length, 8192) + 1];
+				int l;
+				while (buffer.hasRemaining()
+						&& -1 != (l = in.read(bs, 0, Math.min(bs.length, buffer.remaining())))) {
+					buffer.put(bs, 0, l);
+				}
+			}
+		}
+		if (buffer.hasRemaining()) {
+			// 读取期间文件被修改了
+			if (_Logger.isDebugEnabled()) {
+				_Logger.debug("忽略长度不一致的资源 " + source);
+			}
+			return null;
+		}
+		buffer.flip();
+		return new CachedResource(source, buffer, lastModified, time, etag);
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cn.weforward.common.Destroyable;
+import cn.weforward.common.sys.Shutdown;
+
+/**
+ * 进程内各服务共用的工作线程池
+ * <p>
+ * 每个服务通过{@link #newExecutor(String, int)}得到自己的执行器，执行器限制该服务同时占用的线程数（配额），
+ * 超出配额的任务在服务自己的队列中等待，一个服务的突发请求不会占满整个线程池。
+ * 
+ * @author daibo
+ *
+ */
+public class SharedWorkPool implements Destroyable {
+	/** 线程池 */
+	protected final ThreadPoolExecutor m_Pool;
+	/** 线程数 */
+	protected final int m_Threads;
+
+	/**
+	 * 构造
+	 * 
+	 * @param threads 线程数
+	 */
+	public SharedWorkPool(int threads) {
+		m_Threads = threads;
+		final AtomicInteger count = new AtomicInteger();
+		m_Pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "shared-work-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		m_Pool.allowCoreThreadTimeOut(true);
+		Shutdown.register(this);
+	}
+
+	/**
+	 * 线程数
+	 * 
+	 * @return 线程数
+	 */
+	public int getThreads() {
+		return m_Threads;
+	}
+
+	/**
+	 * 创建服务的执行器
+	 * 
+	 * @param name  服务名
+	 * @param quota 服务同时占用的最大线程数，小于等于0或大于线程数时为线程数
+	 * @return 执行器
+	 */
+	public QuotaExecutor newExecutor(String name, int quota) {
+		return new QuotaExecutor(name, quota <= 0 || quota > m_Threads ? m_Threads : quota);
+	}
+
+	/**
+	 * 统计信息
+	 * 
+	 * @return 统计信息
+	 */
+	public String getStat() {
+		return "threads=" + m_Pool.getPoolSize() + ";active=" + m_Pool.getActiveCount() + ";queued="
+				+ m_Pool.getQueue().size() + ";completed=" + m_Pool.getCompletedTaskCount();
+	}
+
+	@Override
+	public void destroy() {
+		m_Pool.shutdown();
+	}
+
+	/**
+	 * 带配额的执行器
+	 * 
+	 * @author daibo
+	 *
+	 */
+	public class QuotaExecutor implements Executor {
+		/** 服务名 */
+		protected final String m_Name;
+		/** 配额 */
+		protected final int m_Quota;
+		/** 在线程池中的任务数 */
+		protected final AtomicInteger m_Running = new AtomicInteger();
+		/** 超出配额等待的任务 */
+		protected final Queue<Runnable> m_Pending = new ConcurrentLinkedQueue<>();
+
+		QuotaExecutor(String name, int quota) {
+			m_Name = name;
+			m_Quota = quota;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			m_Pending.add(command);
+			drain();
+		}
+
+		/* 在配额内把等待的任务交给线程池 */
+		private void drain() {
+			while (!m_Pending.isEmpty()) {
+				int running = m_Running.get();
+				if (running >= m_Quota) {
+					// 由正在执行的任务结束时继续
+					return;
+				}
+				if (!m_Running.compareAndSet(running, running + 1)) {
+					continue;
+				}
+				final Runnable command = m_Pending.poll();
+				if (null == command) {
+					m_Running.decrementAndGet();
+					continue;
+				}
+				try {
+					m_Pool.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							try {
+								command.run();
+							} finally {
+								m_Running.decrementAndGet();
+								drain();
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// 线程池已关闭，归还占用的配额
+					m_Running.decrementAndGet();
+					throw e;
+				}
+			}
+		}
+
+		/**
+		 * 统计信息
+		 * 
+		 * @return 统计信息
+		 */
+		public String getStat() {
+			return "name=" + m_Name + ";quota=" + m_Quota + ";running=" + m_Running.get() + ";pending="
+					+ m_Pending.size();
+		}
+	}
+}
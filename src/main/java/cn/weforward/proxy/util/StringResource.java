@@ -12,6 +12,9 @@ package cn.weforward.proxy.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 
 import cn.weforward.common.util.TimeUtil;
@@ -28,13 +31,28 @@ public class StringResource implements Resource {
 	protected String m_Name;
 	/** 最后修改时间 */
 	protected String m_LastModified;
+	/** 修改时间 */
+	protected long m_Time;
+	/** 实体标签 */
+	protected String m_ETag;
 	/** 数据 */
 	protected byte[] m_Data;
 
 	public StringResource(String name, String data) {
 		m_Name = name;
-		m_LastModified = TimeUtil.formatGMT(new Date());
+		m_Time = System.currentTimeMillis();
+		m_LastModified = TimeUtil.formatGMT(new Date(m_Time));
 		m_Data = data.getBytes();
+		m_ETag = HttpConditional.toETag(m_Data.length, digest(m_Data));
+	}
+
+	/* 内容摘要（SHA-256的前64位），作为强校验ETag的一部分，不能用碰撞概率高的哈希码 */
+	private static long digest(byte[] data) {
+		try {
+			return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(data)).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
 	@Override
@@ -52,6 +70,26 @@ public class StringResource implements Resource {
 		return m_LastModified;
 	}
 
+	@Override
+	public long getLastModifiedTime() {
+		return m_Time;
+	}
+
+	@Override
+	public String getETag() {
+		return m_ETag;
+	}
+
+	@Override
+	public long getLength() {
+		return m_Data.length;
+	}
+
+	@Override
+	public Resource getEncoded(String encoding) {
+		return null;
+	}
+
 	@Override
 	public InputStream getStream() throws IOException {
 		return new ByteArrayInputStreamExt(m_Data);
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.common.Destroyable;
+import cn.weforward.common.sys.Shutdown;
+
+/**
+ * 虚拟线程执行器
+ * <p>
+ * 每个请求一个虚拟线程，阻塞在慢的磁盘或客户端上时不占用平台线程；并发数由信号量限制，超出的请求在虚拟线程中排队等待许可。
+ * 运行在不支持虚拟线程的JVM（21以下）时退化为固定线程数（与原来的工作线程数相同）的平台线程池。
+ * <p>
+ * 虚拟线程被钉住（synchronized、本地方法中阻塞）时占着载体线程，可指定阈值开启JFR的jdk.VirtualThreadPinned事件记录下来，便于排查。
+ * 
+ * @author daibo
+ *
+ */
+public class VirtualThreadExecutor implements Executor, Destroyable {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(VirtualThreadExecutor.class);
+	/** 默认的最大并发数 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 10000;
+	/** 默认的平台线程数（不支持虚拟线程时），与服务原来默认的工作线程数相同 */
+	public static final int DEFAULT_PLATFORM_THREADS = 50;
+	/** 默认记录钉住事件的阈值，小于0表示不记录 */
+	public static final int DEFAULT_PINNED_THRESHOLD = -1;
+	/** 钉住事件 */
+	private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+	/** 名称 */
+	protected final String m_Name;
+	/** 执行器 */
+	protected final ExecutorService m_Executor;
+	/** 是否虚拟线程 */
+	protected final boolean m_Virtual;
+	/** 并发许可 */
+	protected final Semaphore m_Permits;
+	/** 最大并发数 */
+	protected final int m_MaxConcurrency;
+	/** 等待许可的任务数 */
+	protected final AtomicInteger m_Waiting = new AtomicInteger();
+	/** 完成的任务数 */
+	protected final LongAdder m_Completed = new LongAdder();
+	/** 钉住的次数 */
+	protected final LongAdder m_Pinned = new LongAdder();
+	/** JFR事件流，不支持时为null */
+	protected AutoCloseable m_PinnedStream;
+
+	/**
+	 * 构造
+	 * 
+	 * @param name            名称，用作线程名前缀
+	 * @param maxConcurrency  最大并发数
+	 * @param platformThreads 不支持虚拟线程时的平台线程数
+	 * @param pinnedThreshold 记录钉住事件的阈值（毫秒），小于0时不记录
+	 */
+	public VirtualThreadExecutor(String name, int maxConcurrency, int platformThreads, int pinnedThreshold) {
+		m_Name = name;
+		m_MaxConcurrency = maxConcurrency;
+		m_Permits = new Semaphore(maxConcurrency);
+		ExecutorService executor = newVirtualExecutor(name);
+		m_Virtual = null != executor;
+		if (null == executor) {
+			_Logger.warn("JVM不支持虚拟线程，" + name + "使用平台线程");
+			executor = newPlatformExecutor(name, Math.max(1, Math.min(platformThreads, maxConcurrency)));
+		} else if (pinnedThreshold >= 0) {
+			m_PinnedStream = startPinnedStream(pinnedThreshold);
+		}
+		m_Executor = executor;
+		Shutdown.register(this);
+	}
+
+	/* 通过反射创建虚拟线程执行器（源码需兼容1.8），不支持时返回null */
+	private static ExecutorService newVirtualExecutor(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-v-", 0L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			Method method = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor",
+					ThreadFactory.class);
+			return (ExecutorService) method.invoke(null, factory);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/* 固定线程数的平台线程池，空闲60秒回收 */
+	private static ExecutorService newPlatformExecutor(final String name, int size) {
+		final AtomicInteger threads = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name + "-" + threads.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/* 通过JFR监听钉住事件，不支持时返回null */
+	private AutoCloseable startPinnedStream(int threshold) {
+		try {
+			Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+			Object stream = streamClass.getConstructor().newInstance();
+			Object settings = streamClass.getMethod("enable", String.class).invoke(stream, PINNED_EVENT);
+			Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class).invoke(settings,
+					Duration.ofMillis(threshold));
+			Consumer<Object> consumer = new Consumer<Object>() {
+
+				@Override
+				public void accept(Object event) {
+					m_Pinned.increment();
+					_Logger.warn(m_Name + "的虚拟线程被钉住:" + event);
+				}
+			};
+			streamClass.getMethod("onEvent", String.class, Consumer.class).invoke(stream, PINNED_EVENT, consumer);
+			streamClass.getMethod("startAsync").invoke(stream);
+			return (AutoCloseable) stream;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			_Logger.warn("无法监听虚拟线程钉住事件", e);
+			return null;
+		}
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		m_Executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				if (!m_Permits.tryAcquire()) {
+					m_Waiting.incrementAndGet();
+					try {
+						m_Permits.acquire();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					} finally {
+						m_Waiting.decrementAndGet();
+					}
+				}
+				try {
+					command.run();
+				} finally {
+					m_Permits.release();
+					m_Completed.increment();
+				}
+			}
+		});
+	}
+
+	/**
+	 * 是否使用虚拟线程
+	 * 
+	 * @return 是否虚拟线程
+	 */
+	public boolean isVirtual() {
+		return m_Virtual;
+	}
+
+	/**
+	 * 统计信息
+	 * 
+	 * @return 统计信息
+	 */
+	public String getStat() {
+		return "virtual=" + m_Virtual + ";active=" + (m_MaxConcurrency - m_Permits.availablePermits()) + ";waiting="
+				+ m_Waiting.get() + ";completed=" + m_Completed.sum() + ";pinned=" + m_Pinned.sum();
+	}
+
+	@Override
+	public void destroy() {
+		AutoCloseable stream = m_PinnedStream;
+		if (null != stream) {
+			try {
+				stream.close();
+			} catch (Exception e) {
+				_Logger.warn("关闭JFR事件流异常", e);
+			}
+		}
+		m_Executor.shutdown();
+	}
+}
@@ -0,0 +1,480 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+
+/**
+ * zip归档
+ * <p>
+ * 打开时把中央目录读成紧凑的索引（按名称排序的数组），之后按位置直接读取条目的数据，不解压到磁盘；
+ * 只索引STORED及DEFLATED的条目，目录及加密的条目忽略。
+ * 
+ * @author daibo
+ *
+ */
+public class ZipArchive implements Closeable {
+	/** 不压缩 */
+	public static final int STORED = 0;
+	/** deflate压缩 */
+	public static final int DEFLATED = 8;
+
+	/** 中央目录结束记录签名 */
+	private static final int END_SIG = 0x06054b50;
+	/** zip64中央目录结束记录签名 */
+	private static final int ZIP64_END_SIG = 0x06064b50;
+	/** zip64中央目录结束记录定位签名 */
+	private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	/** 中央目录记录签名 */
+	private static final int CENTRAL_SIG = 0x02014b50;
+	/** 本地头签名 */
+	private static final int LOCAL_SIG = 0x04034b50;
+	/** 中央目录结束记录长度 */
+	private static final int END_SIZE = 22;
+	/** 本地头长度 */
+	private static final int LOCAL_SIZE = 30;
+	/** 中央目录记录长度 */
+	private static final int CENTRAL_SIZE = 46;
+	/** 32位的占位值，表示真实值在zip64扩展中 */
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	/** 文件 */
+	protected final File m_File;
+	/** 文件通道 */
+	protected final FileChannel m_Channel;
+	/** 打开时的文件长度 */
+	protected final long m_Length;
+	/** 打开时的文件修改时间 */
+	protected final long m_Time;
+	/** 是否已关闭（不再供新的请求使用） */
+	protected volatile boolean m_Closed;
+	/** 引用计数，打开者及每个读取中的流各持有一个，归零时才关闭通道 */
+	protected final AtomicInteger m_Refs = new AtomicInteger(1);
+	/** 最近访问时间 */
+	protected volatile long m_AccessTime = System.currentTimeMillis();
+
+	/** 条目名称（已排序） */
+	protected final String[] m_Names;
+	/** 压缩方法 */
+	protected final short[] m_Methods;
+	/** crc32 */
+	protected final int[] m_Crcs;
+	/** 修改时间 */
+	protected final long[] m_Times;
+	/** 压缩后长度 */
+	protected final long[] m_CompressedSizes;
+	/** 原长度 */
+	protected final long[] m_Sizes;
+	/** 本地头位置 */
+	protected final long[] m_LocalOffsets;
+	/** 数据位置，0表示未读取本地头 */
+	protected final long[] m_DataOffsets;
+
+	/**
+	 * 打开归档
+	 * 
+	 * @param file 文件
+	 * @throws IOException IO异常
+	 */
+	public ZipArchive(File file) throws IOException {
+		m_File = file;
+		m_Length = file.length();
+		m_Time = file.lastModified();
+		m_Channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		List<Entry> entries;
+		try {
+			entries = readCentralDirectory();
+		} catch (IOException | RuntimeException e) {
+			m_Channel.close();
+			throw e;
+		}
+		Collections.sort(entries, Entry.BY_NAME);
+		int size = entries.size();
+		m_Names = new String[size];
+		m_Methods = new short[size];
+		m_Crcs = new int[size];
+		m_Times = new long[size];
+		m_CompressedSizes = new long[size];
+		m_Sizes = new long[size];
+		m_LocalOffsets = new long[size];
+		m_DataOffsets = new long[size];
+		for (int i = 0; i < size; i++) {
+			Entry e = entries.get(i);
+			m_Names[i] = e.m_Name;
+			m_Methods[i] = (short) e.m_Method;
+			m_Crcs[i] = e.m_Crc;
+			m_Times[i] = e.m_Time < 0 ? m_Time : e.m_Time;
+			m_CompressedSizes[i] = e.m_CompressedSize;
+			m_Sizes[i] = e.m_Size;
+			m_LocalOffsets[i] = e.m_LocalOffset;
+		}
+	}
+
+	/* 读取中央目录 */
+	private List<Entry> readCentralDirectory() throws IOException {
+		long fileSize = m_Channel.size();
+		int tailSize = (int) Math.min(fileSize, END_SIZE + 0xFFFF);
+		ByteBuffer tail = read(fileSize - tailSize, tailSize);
+		int end = -1;
+		for (int i = tailSize - END_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_SIG) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException("不是zip文件:" + m_File);
+		}
+		long count = tail.getShort(end + 10) & 0xFFFF;
+		long cdSize = tail.getInt(end + 12) & ZIP64_MAGIC;
+		long cdOffset = tail.getInt(end + 16) & ZIP64_MAGIC;
+		long endPosition = fileSize - tailSize + end;
+		if ((count == 0xFFFF || cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC) && endPosition >= 20) {
+			ByteBuffer locator = read(endPosition - 20, 20);
+			if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+				ByteBuffer end64 = read(locator.getLong(8), 56);
+				if (end64.getInt(0) != ZIP64_END_SIG) {
+					throw new ZipException("zip64结束记录无效:" + m_File);
+				}
+				count = end64.getLong(32);
+				cdSize = end64.getLong(40);
+				cdOffset = end64.getLong(48);
+			}
+		}
+		if (cdSize > Integer.MAX_VALUE || cdOffset + cdSize > fileSize) {
+			throw new ZipException("中央目录无效:" + m_File);
+		}
+		ByteBuffer cd = read(cdOffset, (int) cdSize);
+		List<Entry> entries = new ArrayList<>((int) Math.min(count, 65536));
+		int pos = 0;
+		while (pos + CENTRAL_SIZE <= cd.limit() && cd.getInt(pos) == CENTRAL_SIG) {
+			int flags = cd.getShort(pos + 8) & 0xFFFF;
+			int method = cd.getShort(pos + 10) & 0xFFFF;
+			long dosTime = cd.getInt(pos + 12) & ZIP64_MAGIC;
+			int crc = cd.getInt(pos + 16);
+			long compressedSize = cd.getInt(pos + 20) & ZIP64_MAGIC;
+			long size = cd.getInt(pos + 24) & ZIP64_MAGIC;
+			int nameLength = cd.getShort(pos + 28) & 0xFFFF;
+			int extraLength = cd.getShort(pos + 30) & 0xFFFF;
+			int commentLength = cd.getShort(pos + 32) & 0xFFFF;
+			long localOffset = cd.getInt(pos + 42) & ZIP64_MAGIC;
+			int namePos = pos + CENTRAL_SIZE;
+			int extraPos = namePos + nameLength;
+			int next = extraPos + extraLength + commentLength;
+			if (next > cd.limit()) {
+				throw new ZipException("中央目录被截断:" + m_File);
+			}
+			byte[] bs = new byte[nameLength];
+			for (int i = 0; i < nameLength; i++) {
+				bs[i] = cd.get(namePos + i);
+			}
+			String name = new String(bs, StandardCharsets.UTF_8);
+			long time = dosToJavaTime(dosTime);
+			// 扩展字段：zip64的真实长度及位置，扩展时间戳（UTC）
+			int p = extraPos;
+			int extraEnd = extraPos + extraLength;
+			while (p + 4 <= extraEnd) {
+				int id = cd.getShort(p) & 0xFFFF;
+				int len = cd.getShort(p + 2) & 0xFFFF;
+				int data = p + 4;
+				if (data + len > extraEnd) {
+					break;
+				}
+				if (id == 0x0001) {
+					int q = data;
+					if (size == ZIP64_MAGIC && q + 8 <= data + len) {
+						size = cd.getLong(q);
+						q += 8;
+					}
+					if (compressedSize == ZIP64_MAGIC && q + 8 <= data + len) {
+						compressedSize = cd.getLong(q);
+						q += 8;
+					}
+					if (localOffset == ZIP64_MAGIC && q + 8 <= data + len) {
+						localOffset = cd.getLong(q);
+					}
+				} else if (id == 0x5455 && len >= 5 && (cd.get(data) & 1) != 0) {
+					time = (cd.getInt(data + 1) & ZIP64_MAGIC) * 1000L;
+				}
+				p = data + len;
+			}
+			pos = next;
+			boolean directory = name.endsWith("/");
+			boolean encrypted = (flags & 1) != 0;
+			if (directory || encrypted || (method != STORED && method != DEFLATED)) {
+				continue;
+			}
+			Entry e = new Entry();
+			e.m_Name = name;
+			e.m_Method = method;
+			e.m_Crc = crc;
+			e.m_Time = time;
+			e.m_CompressedSize = compressedSize;
+			e.m_Size = size;
+			e.m_LocalOffset = localOffset;
+			entries.add(e);
+		}
+		return entries;
+	}
+
+	/* 按位置读取 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			int l = m_Channel.read(buffer, position + buffer.position());
+			if (l < 0) {
+				throw new EOFException(m_File.toString());
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/* DOS时间（本地时区）转为毫秒 */
+	private static long dosToJavaTime(long dtime) {
+		try {
+			return LocalDateTime
+					.of((int) ((dtime >> 25) & 0x7F) + 1980, (int) ((dtime >> 21) & 0x0F),
+							(int) ((dtime >> 16) & 0x1F), (int) ((dtime >> 11) & 0x1F), (int) ((dtime >> 5) & 0x3F),
+							(int) ((dtime << 1) & 0x3E))
+					.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		} catch (DateTimeException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * 查找条目
+	 * 
+	 * @param name 条目名称
+	 * @return 下标，不存在时返回-1
+	 */
+	public int indexOf(String name) {
+		int i = Arrays.binarySearch(m_Names, name);
+		return i < 0 ? -1 : i;
+	}
+
+	/**
+	 * 条目数
+	 * 
+	 * @return 条目数
+	 */
+	public int size() {
+		return m_Names.length;
+	}
+
+	public String getName(int index) {
+		return m_Names[index];
+	}
+
+	public int getMethod(int index) {
+		return m_Methods[index];
+	}
+
+	public int getCrc(int index) {
+		return m_Crcs[index];
+	}
+
+	public long getTime(int index) {
+		return m_Times[index];
+	}
+
+	public long getCompressedSize(int index) {
+		return m_CompressedSizes[index];
+	}
+
+	public long getSize(int index) {
+		return m_Sizes[index];
+	}
+
+	/**
+	 * 条目数据在文件中的位置（首次调用时读取本地头）
+	 * 
+	 * @param index 下标
+	 * @return 位置
+	 * @throws IOException IO异常
+	 */
+	public long getDataOffset(int index) throws IOException {
+		long offset = m_DataOffsets[index];
+		if (0 != offset) {
+			return offset;
+		}
+		long local = m_LocalOffsets[index];
+		ByteBuffer header = read(local, LOCAL_SIZE);
+		if (header.getInt(0) != LOCAL_SIG) {
+			throw new ZipException("本地头无效:" + m_File + "!" + m_Names[index]);
+		}
+		offset = local + LOCAL_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+		m_DataOffsets[index] = offset;
+		return offset;
+	}
+
+	/**
+	 * 文件通道（共享，按位置读取）
+	 * 
+	 * @return 通道
+	 */
+	public FileChannel getChannel() {
+		return m_Channel;
+	}
+
+	/**
+	 * 打开时的文件长度
+	 * 
+	 * @return 长度
+	 */
+	public long getLength() {
+		return m_Length;
+	}
+
+	/**
+	 * 打开时的文件修改时间
+	 * 
+	 * @return 修改时间
+	 */
+	public long getLastModifiedTime() {
+		return m_Time;
+	}
+
+	/**
+	 * 是否已关闭
+	 * 
+	 * @return 是否已关闭
+	 */
+	public boolean isClosed() {
+		return m_Closed;
+	}
+
+	/**
+	 * 是否可用：未关闭且通道仍打开（读取的线程被中断时通道会被关闭）
+	 * 
+	 * @return 是否可用
+	 */
+	public boolean isOpen() {
+		return !m_Closed && m_Channel.isOpen();
+	}
+
+	/**
+	 * 最近访问时间
+	 * 
+	 * @return 时间
+	 */
+	public long getAccessTime() {
+		return m_AccessTime;
+	}
+
+	/**
+	 * 记下访问时间
+	 */
+	public void touch() {
+		long now = System.currentTimeMillis();
+		if (now != m_AccessTime) {
+			m_AccessTime = now;
+		}
+	}
+
+	/**
+	 * 增加引用，读取数据前调用，读完后调用{@link #release()}
+	 * 
+	 * @return 通道已关闭时返回false
+	 */
+	public boolean retain() {
+		for (;;) {
+			int refs = m_Refs.get();
+			if (refs <= 0) {
+				return false;
+			}
+			if (m_Refs.compareAndSet(refs, refs + 1)) {
+				touch();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 释放引用，最后一个引用释放时关闭通道
+	 * 
+	 * @throws IOException IO异常
+	 */
+	public void release() throws IOException {
+		if (0 == m_Refs.decrementAndGet()) {
+			m_Channel.close();
+		}
+	}
+
+	/**
+	 * 关闭归档：不再供新的请求使用，正在读取的流读完后才关闭通道
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (m_Closed) {
+				return;
+			}
+			m_Closed = true;
+		}
+		release();
+	}
+
+	@Override
+	public String toString() {
+		return m_File.toString();
+	}
+
+	/**
+	 * 读取中央目录时的条目
+	 * 
+	 * @author daibo
+	 *
+	 */
+	static class Entry {
+		/** 按名称排序 */
+		static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+
+			@Override
+			public int compare(Entry o1, Entry o2) {
+				return o1.m_Name.compareTo(o2.m_Name);
+			}
+		};
+		/** 名称 */
+		String m_Name;
+		/** 压缩方法 */
+		int m_Method;
+		/** crc32 */
+		int m_Crc;
+		/** 修改时间，小于0表示未知 */
+		long m_Time;
+		/** 压缩后长度 */
+		long m_CompressedSize;
+		/** 原长度 */
+		long m_Size;
+		/** 本地头位置 */
+		long m_LocalOffset;
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * zip归档组
+ * <p>
+ * 归档按路径打开一次后共享，文件被替换（长度或修改时间变化）或通道被关闭时重新打开；
+ * 替换或淘汰的归档在正在读取的流都关闭后才关闭通道
+ * 
+ * @author daibo
+ *
+ */
+public class ZipArchives {
+	/** 日志 */
+	private static final Logger _Logger = LoggerFactory.getLogger(ZipArchives.class);
+	/** 同时打开的归档上限，超出时关闭最久未访问的 */
+	private static final int LIMIT = 64;
+	/** 归档组 */
+	private static final Map<String, ZipArchive> ARCHIVES = new ConcurrentHashMap<String, ZipArchive>();
+
+	/**
+	 * 获取资源
+	 * 
+	 * @param archive   归档路径
+	 * @param entry     条目名称
+	 * @param immutable 归档是否位于不会再变的目录下
+	 * @return 资源，归档或条目不存在时返回null
+	 * @throws IOException IO异常
+	 */
+	public static ZipResource get(String archive, String entry, boolean immutable) throws IOException {
+		ZipArchive a = getArchive(archive, immutable);
+		if (null == a) {
+			return null;
+		}
+		int index = a.indexOf(entry);
+		return index < 0 ? null : new ZipResource(a, index);
+	}
+
+	/**
+	 * 获取归档
+	 * 
+	 * @param path      路径
+	 * @param immutable 是否位于不会再变的目录下
+	 * @return 归档，不存在时返回null
+	 * @throws IOException IO异常
+	 */
+	public static ZipArchive getArchive(String path, boolean immutable) throws IOException {
+		FileResource file = FileResources.get(path, immutable);
+		if (!file.exists()) {
+			return null;
+		}
+		ZipArchive a = ARCHIVES.get(path);
+		if (isCurrent(a, file)) {
+			a.touch();
+			return a;
+		}
+		synchronized (ARCHIVES) {
+			a = ARCHIVES.get(path);
+			if (isCurrent(a, file)) {
+				return a;
+			}
+			ZipArchive old = a;
+			a = new ZipArchive(new File(path));
+			ARCHIVES.put(path, a);
+			close(old);
+			if (ARCHIVES.size() > LIMIT) {
+				evict(a);
+			}
+			_Logger.info("打开归档" + path + "，共" + a.size() + "个条目");
+		}
+		return a;
+	}
+
+	/* 归档是否与文件一致 */
+	private static boolean isCurrent(ZipArchive a, FileResource file) {
+		return null != a && a.isOpen() && a.getLength() == file.getLength()
+				&& a.getLastModifiedTime() == file.getLastModifiedTime();
+	}
+
+	/* 关闭最久未访问的归档 */
+	private static void evict(ZipArchive keep) {
+		Map.Entry<String, ZipArchive> oldest = null;
+		for (Map.Entry<String, ZipArchive> e : ARCHIVES.entrySet()) {
+			if (e.getValue() != keep
+					&& (null == oldest || e.getValue().getAccessTime() < oldest.getValue().getAccessTime())) {
+				oldest = e;
+			}
+		}
+		if (null != oldest && ARCHIVES.remove(oldest.getKey(), oldest.getValue())) {
+			close(oldest.getValue());
+		}
+	}
+
+	private static void close(ZipArchive a) {
+		if (null == a) {
+			return;
+		}
+		try {
+			a.close();
+		} catch (IOException e) {
+			_Logger.warn("忽略关闭异常", e);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import cn.weforward.common.util.TimeUtil;
+import cn.weforward.proxy.Resource;
+
+/**
+ * zip归档中的条目资源
+ * <p>
+ * STORED的条目直接按数据位置输出（transferTo）；DEFLATED的条目在客户端接受gzip时把压缩数据加上gzip的头尾原样输出，否则边读边解压
+ * 
+ * @author daibo
+ *
+ */
+public class ZipResource implements Resource {
+	/** gzip头：无文件名、无修改时间 */
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	/** 归档 */
+	protected final ZipArchive m_Archive;
+	/** 条目下标 */
+	protected final int m_Index;
+	/** 名称 */
+	protected final String m_Name;
+	/** 最后修改时间（GMT格式） */
+	protected final String m_LastModified;
+	/** 实体标签 */
+	protected final String m_ETag;
+	/** gzip编码的资源 */
+	protected Resource m_Gzip;
+
+	public ZipResource(ZipArchive archive, int index) {
+		m_Archive = archive;
+		m_Index = index;
+		String entry = archive.getName(index);
+		m_Name = entry.substring(entry.lastIndexOf('/') + 1);
+		m_LastModified = TimeUtil.formatGMT(new Date(archive.getTime(index)));
+		m_ETag = HttpConditional.toETag(archive.getSize(index), archive.getCrc(index) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * 所属的归档已关闭（被替换）时需重新获取
+	 * 
+	 * @return 是否已失效
+	 */
+	public boolean isDetached() {
+		return !m_Archive.isOpen();
+	}
+
+	@Override
+	public String getName() {
+		return m_Name;
+	}
+
+	@Override
+	public boolean exists() {
+		return !m_Archive.isClosed();
+	}
+
+	@Override
+	public String getLastModified() {
+		return m_LastModified;
+	}
+
+	@Override
+	public long getLastModifiedTime() {
+		return m_Archive.getTime(m_Index);
+	}
+
+	@Override
+	public String getETag() {
+		return m_ETag;
+	}
+
+	@Override
+	public long getLength() {
+		return m_Archive.getSize(m_Index);
+	}
+
+	@Override
+	public Resource getEncoded(String encoding) {
+		if (!ENCODING_GZIP.equals(encoding) || ZipArchive.DEFLATED != m_Archive.getMethod(m_Index)) {
+			return null;
+		}
+		Resource r = m_Gzip;
+		if (null == r) {
+			r = new Gzip();
+			m_Gzip = r;
+		}
+		return r;
+	}
+
+	@Override
+	public InputStream getStream() throws IOException {
+		ZipArchive a = m_Archive;
+		Closeable release = retain(a);
+		long offset;
+		try {
+			offset = a.getDataOffset(m_Index);
+		} catch (IOException | RuntimeException e) {
+			release.close();
+			throw e;
+		}
+		if (ZipArchive.STORED == a.getMethod(m_Index)) {
+			return new ChannelInputStream(null, a.getChannel(), offset, a.getSize(m_Index), null, release);
+		}
+		// 原始deflate数据需在末尾补一个字节
+		InputStream in = new ChannelInputStream(null, a.getChannel(), offset, a.getCompressedSize(m_Index),
+				new byte[1], release);
+		final Inflater inflater = new Inflater(true);
+		return new InflaterInputStream(in, inflater, 8192) {
+			private boolean m_Closed;
+
+			@Override
+			public void close() throws IOException {
+				if (!m_Closed) {
+					m_Closed = true;
+					inflater.end();
+				}
+				super.close();
+			}
+		};
+	}
+
+	/* 增加归档的引用，返回流关闭时用于释放的对象 */
+	static Closeable retain(final ZipArchive a) throws IOException {
+		if (!a.retain()) {
+			throw new IOException("归档已关闭:" + a);
+		}
+		return new Closeable() {
+
+			@Override
+			public void close() throws IOException {
+				a.release();
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return m_Archive + "!" + m_Archive.getName(m_Index);
+	}
+
+	/**
+	 * 以gzip格式输出压缩数据的资源
+	 * 
+	 * @author daibo
+	 *
+	 */
+	class Gzip implements Resource {
+		/** 实体标签 */
+		final String m_GzipETag;
+
+		Gzip() {
+			// 与未编码的内容区分开
+			String etag = HttpConditional.toETag(getLength(), m_Archive.getCrc(m_Index) & 0xFFFFFFFFL);
+			m_GzipETag = etag.substring(0, etag.length() - 1) + "-gz\"";
+		}
+
+		@Override
+		public String getName() {
+			return m_Name;
+		}
+
+		@Override
+		public boolean exists() {
+			return ZipResource.this.exists();
+		}
+
+		@Override
+		public String getLastModified() {
+			return m_LastModified;
+		}
+
+		@Override
+		public long getLastModifiedTime() {
+			return ZipResource.this.getLastModifiedTime();
+		}
+
+		@Override
+		public String getETag() {
+			return m_GzipETag;
+		}
+
+		@Override
+		public long getLength() {
+			return GZIP_HEADER.length + m_Archive.getCompressedSize(m_Index) + 8;
+		}
+
+		@Override
+		public Resource getEncoded(String encoding) {
+			return null;
+		}
+
+		@Override
+		public InputStream getStream() throws IOException {
+			ZipArchive a = m_Archive;
+			int crc = a.getCrc(m_Index);
+			long size = a.getSize(m_Index);
+			byte[] trailer = { (byte) crc, (byte) (crc >>> 8), (byte) (crc >>> 16), (byte) (crc >>> 24), (byte) size,
+					(byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24) };
+			Closeable release = retain(a);
+			long offset;
+			try {
+				offset = a.getDataOffset(m_Index);
+			} catch (IOException | RuntimeException e) {
+				release.close();
+				throw e;
+			}
+			return new ChannelInputStream(GZIP_HEADER, a.getChannel(), offset, a.getCompressedSize(m_Index), trailer,
+					release);
+		}
+
+		@Override
+		public String toString() {
+			return ZipResource.this.toString() + ".gz";
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * {@link CachePolicy}测试
+ * 
+ * @author daibo
+ *
+ */
+public class CachePolicyTest {
+
+	@Test
+	public void testMatch() {
+		CachePolicy version = new CachePolicy(CachePolicy.MATCH_VERSION);
+		assertTrue(version.match("a.js", ".js", true));
+		assertFalse(version.match("a.js", ".js", false));
+
+		CachePolicy fingerprint = new CachePolicy(CachePolicy.MATCH_FINGERPRINT);
+		assertTrue(fingerprint.match("app.3f2a9c1d.js", ".js", false));
+		assertTrue(fingerprint.match("app-3F2A9C1D0E.css", ".css", false));
+		assertFalse(fingerprint.match("app.js", ".js", false));
+		assertFalse(fingerprint.match("app.3f2a9c.js", ".js", false));
+
+		CachePolicy suffix = new CachePolicy(CachePolicy.MATCH_SUFFIX);
+		suffix.setValues(Arrays.asList(".html", ".htm"));
+		assertTrue(suffix.match("index.html", ".html", false));
+		assertFalse(suffix.match("a.js", ".js", false));
+		assertFalse(suffix.match("README", null, false));
+
+		CachePolicy name = new CachePolicy(CachePolicy.MATCH_NAME);
+		name.setValues(Arrays.asList("index.html"));
+		assertTrue(name.match("index.html", ".html", false));
+		assertFalse(name.match("about.html", ".html", false));
+
+		assertTrue(new CachePolicy(CachePolicy.MATCH_ALL).match("a", null, false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownMatch() {
+		new CachePolicy("prefix");
+	}
+
+	@Test
+	public void testHeader() {
+		CachePolicy p = new CachePolicy(CachePolicy.MATCH_ALL);
+		assertEquals("", p.getHeader());
+		p.setPublic(true);
+		p.setMaxAge(31536000);
+		p.setImmutable(true);
+		assertEquals("public, max-age=31536000, immutable", p.getHeader());
+		// 修改后重新生成
+		p.setImmutable(false);
+		p.setStaleWhileRevalidate(60);
+		assertEquals("public, max-age=31536000, stale-while-revalidate=60", p.getHeader());
+
+		p = new CachePolicy(CachePolicy.MATCH_ALL);
+		p.setNoCache(true);
+		p.setMaxAge(0);
+		assertEquals("no-cache, max-age=0", p.getHeader());
+	}
+}
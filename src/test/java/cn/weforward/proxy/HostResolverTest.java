@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link HostResolver}测试
+ * 
+ * @author daibo
+ *
+ */
+public class HostResolverTest {
+
+	@Test
+	public void testExact() {
+		List<HostRoutes> list = new ArrayList<>();
+		HostRoutes www = routes(list, "www.example.com");
+		HostResolver r = new HostResolver(list, false, false);
+		assertSame(www, r.resolve("www.example.com"));
+		assertNull(r.resolve("img.example.com"));
+		assertNull(r.resolve(null));
+	}
+
+	@Test
+	public void testAntSuffix() {
+		List<HostRoutes> list = new ArrayList<>();
+		HostRoutes www = routes(list, "www.example.com");
+		HostRoutes any = routes(list, "*.example.com");
+		HostRoutes cdn = routes(list, "*.cdn.example.com");
+		HostResolver r = new HostResolver(list, true, false);
+		assertSame(www, r.resolve("www.example.com"));
+		assertSame(any, r.resolve("img.example.com"));
+		assertSame(any, r.resolve("a.b.example.com"));
+		// 取最长的后缀
+		assertSame(cdn, r.resolve("a.cdn.example.com"));
+		assertSame(any, r.resolve("cdn.example.com"));
+		// 后缀前须还有内容
+		assertNull(r.resolve("example.com"));
+		assertNull(r.resolve("example.org"));
+		// 再次查询走最近结果表
+		assertNull(r.resolve("example.org"));
+		assertSame(any, r.resolve("img.example.com"));
+	}
+
+	@Test
+	public void testRegex() {
+		List<HostRoutes> list = new ArrayList<>();
+		HostRoutes www = routes(list, "www\\.example\\.com");
+		HostRoutes any = routes(list, ".*\\.example\\.com");
+		HostRoutes api = routes(list, "api-[0-9]+\\.test");
+		HostResolver r = new HostResolver(list, false, true);
+		assertSame(www, r.resolve("www.example.com"));
+		assertSame(any, r.resolve("img.example.com"));
+		assertSame(api, r.resolve("api-12.test"));
+		assertNull(r.resolve("api-x.test"));
+		// 正则中的“.”只在转义时作为字面值
+		assertNull(r.resolve("wwwxexample.com"));
+	}
+
+	private static HostRoutes routes(List<HostRoutes> list, String host) {
+		HostRoutes r = new HostRoutes(new HostRoute(host, "/tmp"));
+		list.add(r);
+		return r;
+	}
+}
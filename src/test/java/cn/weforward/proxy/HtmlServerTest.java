@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * {@link HtmlServer#isAcceptEncoding(String, String)}测试
+ * 
+ * @author daibo
+ *
+ */
+public class HtmlServerTest {
+
+	@Test
+	public void testListed() {
+		assertTrue(HtmlServer.isAcceptEncoding("gzip, deflate, br", "br"));
+		assertTrue(HtmlServer.isAcceptEncoding("GZIP;q=0.5", "gzip"));
+		assertFalse(HtmlServer.isAcceptEncoding("gzip;q=0, br", "gzip"));
+		assertFalse(HtmlServer.isAcceptEncoding("gzip;q=0.0", "gzip"));
+		assertFalse(HtmlServer.isAcceptEncoding("deflate", "gzip"));
+		assertFalse(HtmlServer.isAcceptEncoding(null, "gzip"));
+	}
+
+	@Test
+	public void testWildcard() {
+		assertTrue(HtmlServer.isAcceptEncoding("*", "br"));
+		assertFalse(HtmlServer.isAcceptEncoding("*;q=0", "br"));
+		// 明确列出的编码优先于*，与顺序无关
+		assertTrue(HtmlServer.isAcceptEncoding("*;q=0, br", "br"));
+		assertFalse(HtmlServer.isAcceptEncoding("*, gzip;q=0", "gzip"));
+		assertTrue(HtmlServer.isAcceptEncoding("*, gzip;q=0", "br"));
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+/**
+ * {@link RouteMatcher}测试，结果须与按配置顺序逐个匹配一致
+ * 
+ * @author daibo
+ *
+ */
+public class RouteMatcherTest {
+
+	@Test
+	public void testFirstMatch() {
+		HostRoute statics = route("/static/");
+		HostRoute v2 = route("/api/v2/");
+		HostRoute api = route("/api/");
+		HostRoute js = route(".*\\.js");
+		js.setRegEnable(true);
+		HostRoute all = route(null);
+		RouteMatcher m = new RouteMatcher(Arrays.asList(statics, v2, api, js, all));
+		assertSame(statics, m.match("/static/a.js"));
+		assertSame(v2, m.match("/api/v2/users"));
+		assertSame(api, m.match("/api/v1/users"));
+		assertSame(api, m.match("/api/"));
+		assertSame(js, m.match("/lib/a.js"));
+		assertSame(all, m.match("/api"));
+		assertSame(all, m.match("/"));
+	}
+
+	@Test
+	public void testOrder() {
+		// 较短的前缀在前时优先于较长的前缀
+		HostRoute api = route("/api/");
+		HostRoute v2 = route("/api/v2/");
+		RouteMatcher m = new RouteMatcher(Arrays.asList(api, v2));
+		assertSame(api, m.match("/api/v2/users"));
+		// 匹配所有的路由在前时后面的都不会命中
+		HostRoute all = route("");
+		m = new RouteMatcher(Arrays.asList(all, api));
+		assertSame(all, m.match("/api/x"));
+		// 模式路由在前缀路由之前
+		HostRoute js = route(".*\\.js");
+		js.setRegEnable(true);
+		m = new RouteMatcher(Arrays.asList(js, api));
+		assertSame(js, m.match("/api/a.js"));
+		assertSame(api, m.match("/api/a.css"));
+	}
+
+	@Test
+	public void testSplitEdge() {
+		HostRoute ab = route("/ab");
+		HostRoute ac = route("/ac");
+		HostRoute a = route("/a");
+		HostRoute abc = route("/abc");
+		RouteMatcher m = new RouteMatcher(Arrays.asList(ab, ac, a, abc));
+		assertSame(ab, m.match("/abc"));
+		assertSame(ac, m.match("/ac/x"));
+		assertSame(a, m.match("/ad"));
+		assertSame(a, m.match("/a"));
+		assertNull(m.match("/b"));
+		assertNull(m.match(""));
+	}
+
+	@Test(expected = PatternSyntaxException.class)
+	public void testBadPattern() {
+		// 正则表达式错误在编译路由时抛出，而不是等到请求时
+		HostRoute bad = route("/api/(v1");
+		bad.setRegEnable(true);
+		new RouteMatcher(Arrays.asList(route("/static/"), bad));
+	}
+
+	private static HostRoute route(String path) {
+		HostRoute r = new HostRoute("localhost", "/tmp");
+		r.setPath(path);
+		return r;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import cn.weforward.proxy.ManageServer;
+
+/**
+ * 解压性能对比：{@link ManageServer#unZipFiles(File, File)}与{@link Deployer#extract(File, File)}
+ * <p>
+ * 用法（在测试类路径下运行）：java cn.weforward.proxy.deploy.DeployBenchmark [zip文件] [轮数]，不指定zip文件时生成一个包含大量小文件的测试包
+ * 
+ * @author daibo
+ *
+ */
+public class DeployBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		File work = new File(System.getProperty("java.io.tmpdir"), "deploy-benchmark");
+		File zip;
+		if (args.length > 0) {
+			zip = new File(args[0]);
+		} else {
+			zip = new File(work, "bundle.zip");
+			generate(zip, 20000, 16 * 1024);
+		}
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		System.out.println("zip:" + zip + "(" + (zip.length() >> 20) + "MB)");
+		for (int i = 0; i < rounds; i++) {
+			File a = new File(work, "unzip-" + i);
+			File b = new File(work, "extract-" + i);
+			long unzip;
+			long extract;
+			// 交替先后顺序，避免后执行的一方总是承担前一方的脏页回写
+			if ((i & 1) == 0) {
+				unzip = unzip(zip, a);
+				extract = extract(zip, b);
+			} else {
+				extract = extract(zip, b);
+				unzip = unzip(zip, a);
+			}
+			System.out.println("round " + i + " unZipFiles:" + (unzip / 1000000) + "ms extract:" + (extract / 1000000)
+					+ "ms");
+			delete(a);
+			delete(b);
+		}
+	}
+
+	private static long unzip(File zip, File dir) throws IOException {
+		long t = System.nanoTime();
+		ManageServer.unZipFiles(zip, dir);
+		return System.nanoTime() - t;
+	}
+
+	private static long extract(File zip, File dir) throws IOException {
+		long t = System.nanoTime();
+		Deployer.extract(zip, dir);
+		return System.nanoTime() - t;
+	}
+
+	/* 生成测试包，一半文本（可压缩）一半随机内容（不可压缩，STORED） */
+	private static void generate(File zip, int count, int maxSize) throws IOException {
+		zip.getParentFile().mkdirs();
+		Random random = new Random(0);
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+			for (int i = 0; i < count; i++) {
+				byte[] bs = new byte[random.nextInt(maxSize) + 1];
+				boolean text = (i & 1) == 0;
+				if (text) {
+					for (int j = 0; j < bs.length; j++) {
+						bs[j] = (byte) ('a' + (j % 26));
+					}
+				} else {
+					random.nextBytes(bs);
+				}
+				ZipEntry entry = new ZipEntry("dir" + (i % 100) + "/file" + i + (text ? ".js" : ".png"));
+				if (!text) {
+					CRC32 crc = new CRC32();
+					crc.update(bs);
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(bs.length);
+					entry.setCrc(crc.getValue());
+				}
+				out.putNextEntry(entry);
+				out.write(bs);
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File c : children) {
+				delete(c);
+			}
+		}
+		file.delete();
+	}
+}
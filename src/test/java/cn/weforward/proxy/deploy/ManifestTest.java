@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.deploy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * {@link Manifest}解析测试
+ * 
+ * @author daibo
+ *
+ */
+public class ManifestTest {
+
+	@Test
+	public void testParse() throws IOException {
+		Manifest m = Manifest.parse("# sha256sum\n\nABC  index.html\ndef *./js/app.js\n0a1  a/..b/c.css\n");
+		assertEquals(3, m.size());
+		assertEquals("abc", m.getHash("index.html"));
+		assertEquals("def", m.getHash("js/app.js"));
+		assertEquals("0a1", m.getHash("a/..b/c.css"));
+		assertEquals("js/app.js", m.findPath("def"));
+		assertNull(m.getHash("./js/app.js"));
+		assertNull(m.findPath("fff"));
+	}
+
+	@Test
+	public void testUnsafePath() {
+		String[] paths = { "/etc/passwd", "../a.js", "js/../../a.js", "js/..", "js\\..\\a.js", "*/etc/passwd" };
+		for (String path : paths) {
+			try {
+				Manifest.parse("abc  " + path);
+				fail("应拒绝路径" + path);
+			} catch (IOException e) {
+				// 预期
+			}
+		}
+	}
+
+	@Test
+	public void testMissingField() {
+		for (String line : new String[] { "abc", "abc  ./" }) {
+			try {
+				Manifest.parse(line);
+				fail("应拒绝" + line);
+			} catch (IOException e) {
+				// 预期
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * {@link ClockMap}测试
+ * 
+ * @author daibo
+ *
+ */
+public class ClockMapTest {
+
+	@Test
+	public void testEvict() {
+		ClockMap<String, Integer> map = new ClockMap<>(100);
+		for (int i = 0; i < 100; i++) {
+			map.put("k" + i, i);
+		}
+		assertEquals(100, map.size());
+		for (int i = 0; i < 1000; i++) {
+			map.get("k0");
+			map.put("x" + i, i);
+			assertTrue(map.size() <= 100);
+		}
+		// 一直被访问的条目不会被淘汰
+		assertNotNull(map.get("k0"));
+		assertNull(map.get("k1"));
+		assertNotNull(map.get("x999"));
+	}
+
+	@Test
+	public void testReplace() {
+		ClockMap<String, Integer> map = new ClockMap<>(2);
+		map.put("a", 1);
+		map.put("a", 2);
+		assertEquals(1, map.size());
+		assertEquals(Integer.valueOf(2), map.get("a"));
+		map.remove("a");
+		assertNull(map.get("a"));
+	}
+}
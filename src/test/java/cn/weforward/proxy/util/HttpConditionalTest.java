@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * {@link HttpConditional}测试
+ * 
+ * @author daibo
+ *
+ */
+public class HttpConditionalTest {
+	/** 比资源早的日期 */
+	private static final String OLD_DATE = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+	@Test
+	public void testETag() {
+		assertEquals("\"10-ff\"", HttpConditional.toETag(16, 255));
+	}
+
+	@Test
+	public void testStringResourceETag() {
+		// "Aa"与"BB"的哈希码相同，ETag须按内容摘要区分
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		assertFalse(new StringResource("a", "Aa").getETag().equals(new StringResource("a", "BB").getETag()));
+		assertEquals(new StringResource("a", "Aa").getETag(), new StringResource("b", "Aa").getETag());
+	}
+
+	@Test
+	public void testMatchAny() {
+		String etag = "\"10-ff\"";
+		assertTrue(HttpConditional.matchAny(etag, etag, false));
+		assertTrue(HttpConditional.matchAny("\"a\", \"10-ff\"", etag, false));
+		assertTrue(HttpConditional.matchAny("*", etag, false));
+		assertTrue(HttpConditional.matchAny("W/\"10-ff\"", etag, true));
+		assertFalse(HttpConditional.matchAny("W/\"10-ff\"", etag, false));
+		assertFalse(HttpConditional.matchAny("\"10-f\"", etag, true));
+		assertFalse(HttpConditional.matchAny("\"10-ff", etag, true));
+		assertFalse(HttpConditional.matchAny("*", null, true));
+	}
+
+	@Test
+	public void testNotModified() {
+		StringResource r = new StringResource("a.txt", "hello");
+		assertTrue(HttpConditional.isNotModified(r.getETag(), null, r));
+		assertTrue(HttpConditional.isNotModified("\"x\", " + r.getETag(), null, r));
+		assertFalse(HttpConditional.isNotModified("\"x\"", null, r));
+		// 有If-None-Match时不看If-Modified-Since
+		assertFalse(HttpConditional.isNotModified("\"x\"", r.getLastModified(), r));
+		assertTrue(HttpConditional.isNotModified(null, r.getLastModified(), r));
+		assertFalse(HttpConditional.isNotModified(null, OLD_DATE, r));
+		assertTrue(HttpConditional.isNotModified(null, "Fri, 31 Dec 9999 23:59:59 GMT", r));
+		assertFalse(HttpConditional.isNotModified(null, "yesterday", r));
+		assertFalse(HttpConditional.isNotModified(null, null, r));
+	}
+
+	@Test
+	public void testRangeMatch() {
+		StringResource r = new StringResource("a.txt", "hello");
+		assertTrue(HttpConditional.isRangeMatch(null, r));
+		assertTrue(HttpConditional.isRangeMatch(r.getETag(), r));
+		assertFalse(HttpConditional.isRangeMatch("W/" + r.getETag(), r));
+		assertFalse(HttpConditional.isRangeMatch("\"x\"", r));
+		assertTrue(HttpConditional.isRangeMatch(r.getLastModified(), r));
+		assertFalse(HttpConditional.isRangeMatch(OLD_DATE, r));
+	}
+
+	@Test
+	public void testParseDate() {
+		long expect = 784111777000L;
+		assertEquals(expect, HttpConditional.parseDate(OLD_DATE));
+		assertEquals(expect, HttpConditional.parseDate("Sunday, 06-Nov-94 08:49:37 GMT"));
+		assertEquals(expect, HttpConditional.parseDate("Sun Nov  6 08:49:37 1994"));
+		assertEquals(-1, HttpConditional.parseDate("1994-11-06"));
+	}
+}
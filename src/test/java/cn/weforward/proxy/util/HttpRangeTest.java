@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link HttpRange}测试
+ * 
+ * @author daibo
+ *
+ */
+public class HttpRangeTest {
+
+	@Test
+	public void testSingle() {
+		List<HttpRange> ranges = HttpRange.parse("bytes=0-99", 1000);
+		assertEquals(1, ranges.size());
+		HttpRange r = ranges.get(0);
+		assertEquals(0, r.getStart());
+		assertEquals(99, r.getEnd());
+		assertEquals(100, r.getLength());
+		assertEquals("bytes 0-99/1000", r.toContentRange(1000));
+	}
+
+	@Test
+	public void testOpenAndSuffix() {
+		HttpRange r = HttpRange.parse("bytes=500-", 1000).get(0);
+		assertEquals(500, r.getStart());
+		assertEquals(999, r.getEnd());
+		r = HttpRange.parse("bytes=-100", 1000).get(0);
+		assertEquals(900, r.getStart());
+		assertEquals(999, r.getEnd());
+		// 后缀超出总长度时取整个内容
+		r = HttpRange.parse("bytes=-2000", 1000).get(0);
+		assertEquals(0, r.getStart());
+		assertEquals(999, r.getEnd());
+		// 结束位置超出总长度时截断
+		r = HttpRange.parse("bytes=900-2000", 1000).get(0);
+		assertEquals(999, r.getEnd());
+	}
+
+	@Test
+	public void testMultiple() {
+		List<HttpRange> ranges = HttpRange.parse("bytes=0-0, 10-19,,-1", 100);
+		assertEquals(3, ranges.size());
+		assertEquals(10, ranges.get(1).getStart());
+		assertEquals(99, ranges.get(2).getStart());
+	}
+
+	@Test
+	public void testUnsatisfiable() {
+		assertTrue(HttpRange.parse("bytes=1000-", 1000).isEmpty());
+		assertTrue(HttpRange.parse("bytes=-0", 1000).isEmpty());
+		assertTrue(HttpRange.parse("bytes=0-", 0).isEmpty());
+		// 只要有一个可满足就不是416
+		assertEquals(1, HttpRange.parse("bytes=2000-3000,0-1", 1000).size());
+	}
+
+	@Test
+	public void testIgnored() {
+		assertNull(HttpRange.parse(null, 1000));
+		assertNull(HttpRange.parse("items=0-1", 1000));
+		assertNull(HttpRange.parse("bytes=", 1000));
+		assertNull(HttpRange.parse("bytes=abc", 1000));
+		assertNull(HttpRange.parse("bytes=a-b", 1000));
+		assertNull(HttpRange.parse("bytes=5-1", 1000));
+		StringBuilder sb = new StringBuilder("bytes=");
+		for (int i = 0; i <= HttpRange.MAX_RANGES; i++) {
+			sb.append(i).append('-').append(i).append(',');
+		}
+		assertNull(HttpRange.parse(sb.toString(), 1000));
+	}
+}
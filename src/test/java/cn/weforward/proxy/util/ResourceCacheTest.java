@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.proxy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cn.weforward.proxy.Resource;
+
+/**
+ * {@link ResourceCache}准入与淘汰测试
+ * 
+ * @author daibo
+ *
+ */
+public class ResourceCacheTest {
+	/** 容量 */
+	private static final int CAPACITY = 1024 * 1024;
+	/** 测试文件大小，两个放不下 */
+	private static final int SIZE = 600 * 1024;
+
+	/** 临时目录 */
+	private File m_Dir;
+
+	@Before
+	public void setUp() throws IOException {
+		m_Dir = Files.createTempDirectory("resource-cache").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = m_Dir.listFiles();
+		if (null != files) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		m_Dir.delete();
+	}
+
+	@Test
+	public void testHit() throws IOException {
+		ResourceCache cache = new ResourceCache(CAPACITY, CAPACITY);
+		Resource a = create("a.js", SIZE);
+		Resource cached = cache.get(a);
+		assertTrue(cached instanceof CachedResource);
+		assertEquals(SIZE, cached.getLength());
+		assertEquals(a.getETag(), cached.getETag());
+		assertSame(cached, cache.get(a));
+		assertSame(cached, cache.peek(a));
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(SIZE, cache.getWeight());
+
+		cache.remove(a);
+		assertNull(cache.peek(a));
+		assertEquals(0, cache.getWeight());
+	}
+
+	@Test
+	public void testTooLarge() throws IOException {
+		ResourceCache cache = new ResourceCache(CAPACITY, SIZE - 1);
+		Resource a = create("a.js", SIZE);
+		assertSame(a, cache.get(a));
+		assertNull(cache.peek(a));
+		assertEquals(0, cache.getWeight());
+		// 内存中的资源原样返回
+		StringResource s = new StringResource("s.txt", "s");
+		assertSame(s, cache.get(s));
+	}
+
+	@Test
+	public void testAdmission() throws IOException {
+		ResourceCache cache = new ResourceCache(CAPACITY, CAPACITY);
+		Resource a = create("a.js", SIZE);
+		Resource b = create("b.js", SIZE);
+		cache.get(a);
+		cache.get(a);
+		// 候选者的频率不高于被淘汰者时不准入，也不淘汰
+		assertSame(b, cache.get(b));
+		assertSame(b, cache.get(b));
+		assertNotNull(cache.peek(a));
+		assertEquals(0, cache.getEvictions());
+		// a的频率为3，b再访问两次后超过a
+		assertSame(b, cache.get(b));
+		assertTrue(cache.get(b) instanceof CachedResource);
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.peek(a));
+		assertNotNull(cache.peek(b));
+		assertEquals(SIZE, cache.getWeight());
+	}
+
+	@Test
+	public void testClear() throws IOException {
+		ResourceCache cache = new ResourceCache(CAPACITY, CAPACITY);
+		Resource a = create("a.js", 100);
+		Resource b = create("b.js", 200);
+		cache.get(a);
+		cache.get(b);
+		assertEquals(300, cache.getWeight());
+		cache.clear();
+		assertEquals(0, cache.getWeight());
+		assertNull(cache.peek(a));
+		assertNull(cache.peek(b));
+	}
+
+	private Resource create(String name, int size) throws IOException {
+		File file = new File(m_Dir, name);
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) i;
+		}
+		Files.write(file.toPath(), data);
+		return new FileResource(file);
+	}
+}